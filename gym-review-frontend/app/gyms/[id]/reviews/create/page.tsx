@@ -3,12 +3,15 @@
 import { useState, useEffect, useRef } from "react";
 import { useParams, useRouter } from "next/navigation";
 import Link from "next/link";
-import { ReviewCreateUpdateRequestDto } from "../../../../lib/types";
+import {
+  ReviewCreateUpdateRequestDto,
+  PhotoUploadResultDto,
+} from "../../../../lib/types";
 import { isLoggedIn, getAccessToken } from "../../../../lib/keycloak";
 
 // Backend configuration
 const BACKEND_BASE_URL = process.env.NEXT_PUBLIC_API_URL || "http://localhost:8080/api";
-const UPLOAD_PHOTO_ENDPOINT = `${BACKEND_BASE_URL}/photos`;
+const UPLOAD_PHOTOS_BATCH_ENDPOINT = `${BACKEND_BASE_URL}/photos/batch`;
 const TOKEN_STORAGE_KEY = "kc_access_token";
 const MAX_PHOTOS = 5;
 
@@ -128,38 +131,43 @@ export default function CreateReviewPage() {
       throw new Error("No access token found. Please log in first.");
     }
 
-    const photoIds: string[] = [];
-
-    // Upload all photos sequentially to get their IDs
-    for (const file of selectedFiles) {
-      const formData = new FormData();
-      formData.append("file", file);
-
-      const response = await fetch(UPLOAD_PHOTO_ENDPOINT, {
-        method: "POST",
-        headers: {
-          Authorization: `Bearer ${token}`,
-        },
-        body: formData,
-      });
+    // Upload all photos in one batch request, the backend processes them in parallel
+    const formData = new FormData();
+    selectedFiles.forEach((file) => formData.append("files", file));
+
+    const response = await fetch(UPLOAD_PHOTOS_BATCH_ENDPOINT, {
+      method: "POST",
+      headers: {
+        Authorization: `Bearer ${token}`,
+      },
+      body: formData,
+    });
+
+    if (!response.ok) {
+      const errorText = await response.text();
+      throw new Error(
+        `Photo upload failed: ${response.statusText} - ${errorText}`
+      );
+    }
 
-      if (!response.ok) {
-        const errorText = await response.text();
-        throw new Error(
-          `Photo upload failed: ${response.statusText} - ${errorText}`
-        );
-      }
+    let results: PhotoUploadResultDto[];
+    try {
+      results = JSON.parse(await response.text());
+    } catch (parseError) {
+      throw new Error("Response could not be parsed.");
+    }
 
-      const responseText = await response.text();
-      try {
-        const photoData: { url: string } = JSON.parse(responseText);
-        photoIds.push(photoData.url);
-      } catch (parseError) {
-        throw new Error("Response could not be parsed.");
-      }
+    // Results come back in the same order as the selected files
+    const failed = results.filter((result) => result.error || !result.photo);
+    if (failed.length > 0) {
+      throw new Error(
+        `Photo upload failed: ${failed
+          .map((result) => `${result.originalFilename}: ${result.error}`)
+          .join(", ")}`
+      );
     }
 
-    return photoIds;
+    return results.map((result) => result.photo!.url);
   };
 
   /**
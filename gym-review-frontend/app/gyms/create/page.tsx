@@ -18,12 +18,13 @@ import {
   OperatingHoursDto,
   TimeRangeDto,
   GymDto,
+  PhotoUploadResultDto,
 } from "../../lib/types";
 
 // Backend configuration
 const BACKEND_BASE_URL = process.env.NEXT_PUBLIC_API_URL || "http://localhost:8080/api";
 const CREATE_GYM_ENDPOINT = `${BACKEND_BASE_URL}/gyms`;
-const UPLOAD_PHOTO_ENDPOINT = `${BACKEND_BASE_URL}/photos`;
+const UPLOAD_PHOTOS_BATCH_ENDPOINT = `${BACKEND_BASE_URL}/photos/batch`;
 const TOKEN_STORAGE_KEY = "kc_access_token";
 
 // Days of the week for operating hours
@@ -209,38 +210,43 @@ export default function CreateGymPage() {
       throw new Error("No access token found. Please log in first.");
     }
 
-    const photoIds: string[] = [];
+    // Upload all photos in one batch request, the backend processes them in parallel
+    const formData = new FormData();
+    selectedFiles.forEach((file) => formData.append("files", file));
 
-    // Upload all photos sequentially to get their IDs
-    for (const file of selectedFiles) {
-      const formData = new FormData();
-      formData.append("file", file);
+    const response = await fetch(UPLOAD_PHOTOS_BATCH_ENDPOINT, {
+      method: "POST",
+      headers: {
+        Authorization: `Bearer ${token}`,
+      },
+      body: formData,
+    });
 
-      const response = await fetch(UPLOAD_PHOTO_ENDPOINT, {
-        method: "POST",
-        headers: {
-          Authorization: `Bearer ${token}`,
-        },
-        body: formData,
-      });
+    if (!response.ok) {
+      const errorText = await response.text();
+      throw new Error(
+        `Photo upload failed: ${response.statusText} - ${errorText}`
+      );
+    }
 
-      if (!response.ok) {
-        const errorText = await response.text();
-        throw new Error(
-          `Photo upload failed: ${response.statusText} - ${errorText}`
-        );
-      }
+    let results: PhotoUploadResultDto[];
+    try {
+      results = JSON.parse(await response.text());
+    } catch (parseError) {
+      throw new Error("Response could not be parsed.");
+    }
 
-      const responseText = await response.text();
-      try {
-        const photoData: { url: string } = JSON.parse(responseText);
-        photoIds.push(photoData.url);
-      } catch (parseError) {
-        throw new Error("Response could not be parsed.");
-      }
+    // Results come back in the same order as the selected files
+    const failed = results.filter((result) => result.error || !result.photo);
+    if (failed.length > 0) {
+      throw new Error(
+        `Photo upload failed: ${failed
+          .map((result) => `${result.originalFilename}: ${result.error}`)
+          .join(", ")}`
+      );
     }
 
-    return photoIds;
+    return results.map((result) => result.photo!.url);
   };
 
   /**
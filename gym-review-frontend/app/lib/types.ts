@@ -82,6 +82,18 @@ export interface GymDto {
 export interface Photo {
   url: string;
   uploadDate: string; // ISO date string
+  width?: number | null; // captured at upload time, null for older photos
+  height?: number | null;
+  sizeBytes?: number | null;
+  mimeType?: string | null;
+  placeholder?: string | null; // tiny blurred preview as data uri
+}
+
+export interface PhotoUploadResultDto {
+  index: number; // position of the file in the uploaded batch
+  originalFilename?: string;
+  photo?: Photo | null; // set when the upload succeeded
+  error?: string | null; // set when the upload failed
 }
 
 export interface GymSummaryDto {
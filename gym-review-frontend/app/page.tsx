@@ -46,11 +46,23 @@ function GymCard({ gym }: { gym: GymSummaryDto }) {
       </div>
 
       {/* Gym image */}
-      <div className="w-full h-48 bg-zinc-100 dark:bg-zinc-800 relative overflow-hidden">
+      <div
+        className="w-full h-48 bg-zinc-100 dark:bg-zinc-800 relative overflow-hidden bg-cover bg-center"
+        style={
+          firstPhoto?.placeholder && !imageError
+            ? { backgroundImage: `url(${firstPhoto.placeholder})` }
+            : undefined
+        }
+      >
         {imageUrl && !imageError ? (
+          // placeholder shows as blurred background until the lazy-loaded photo is in
           <img
             src={imageUrl}
             alt={gym.name}
+            width={firstPhoto?.width ?? undefined}
+            height={firstPhoto?.height ?? undefined}
+            loading="lazy"
+            decoding="async"
             className="w-full h-full object-cover"
             onError={() => setImageError(true)}
           />
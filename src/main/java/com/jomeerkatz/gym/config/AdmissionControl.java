@@ -0,0 +1,204 @@
+package com.jomeerkatz.gym.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Request budgets per client (JWT subject, or IP when there is none), so one client can't flood elasticsearch with
+// writes. Used by the AdmissionControlFilter in both security chains.
+//
+// Every client has a token bucket per budget, implemented as GCRA: the bucket is a single long, the time at which it
+// would be full again ("theoretical arrival time"). A request moves it one interval (1 / rate) into the future and is
+// admitted as long as it stays within burst intervals of now. That's one compare-and-set per request, no lock.
+//
+// Memory is bounded: the buckets are spread over stripes of max-keys / stripes entries each. A bucket whose time is in
+// the past is full again - exactly like a new one - so when a stripe is full those are simply dropped. If a stripe is
+// still full after that (lots of distinct clients at once, e.g. spoofed IPs), the new clients share one overflow bucket
+// per stripe: they are limited together instead of growing the map.
+@Component
+public class AdmissionControl {
+
+    public static final String REVIEW_WRITES = "review-writes";
+    public static final String PHOTO_UPLOADS = "photo-uploads";
+    public static final String GYM_WRITES = "gym-writes";
+    public static final String ANONYMOUS_READS = "anonymous-reads";
+
+    private final boolean enabled;
+    private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+    // nanoTime can be negative, bucket times are relative to this so 0 means "full"
+    private final long origin = System.nanoTime();
+
+    private final Budget reviewWrites;
+    private final Budget photoUploads;
+    private final Budget gymWrites;
+    private final Budget anonymousReads;
+
+    public AdmissionControl(
+            @Value("${app.admission.enabled:true}") boolean enabled,
+            @Value("${app.admission.stripes:64}") int stripes,
+            @Value("${app.admission.max-keys:100000}") int maxKeys,
+            @Value("${app.admission.review-writes.per-minute:30}") int reviewWritesPerMinute,
+            @Value("${app.admission.review-writes.burst:10}") int reviewWritesBurst,
+            @Value("${app.admission.photo-uploads.per-minute:60}") int photoUploadsPerMinute,
+            @Value("${app.admission.photo-uploads.burst:20}") int photoUploadsBurst,
+            @Value("${app.admission.gym-writes.per-minute:20}") int gymWritesPerMinute,
+            @Value("${app.admission.gym-writes.burst:10}") int gymWritesBurst,
+            @Value("${app.admission.anonymous-reads.per-minute:1200}") int anonymousReadsPerMinute,
+            @Value("${app.admission.anonymous-reads.burst:200}") int anonymousReadsBurst,
+            ObjectProvider<MeterRegistry> meterRegistryProvider
+    ) {
+        this.enabled = enabled;
+        this.meterRegistryProvider = meterRegistryProvider;
+        // a power of two, so the stripe is a mask of the hash
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes));
+        int keysPerStripe = Math.max(1, maxKeys / stripeCount);
+        this.reviewWrites = new Budget(REVIEW_WRITES, reviewWritesPerMinute, reviewWritesBurst, stripeCount, keysPerStripe);
+        this.photoUploads = new Budget(PHOTO_UPLOADS, photoUploadsPerMinute, photoUploadsBurst, stripeCount, keysPerStripe);
+        this.gymWrites = new Budget(GYM_WRITES, gymWritesPerMinute, gymWritesBurst, stripeCount, keysPerStripe);
+        this.anonymousReads = new Budget(ANONYMOUS_READS, anonymousReadsPerMinute, anonymousReadsBurst, stripeCount,
+                keysPerStripe);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Budget budget(String name) {
+        return switch (name) {
+            case REVIEW_WRITES -> reviewWrites;
+            case PHOTO_UPLOADS -> photoUploads;
+            case GYM_WRITES -> gymWrites;
+            case ANONYMOUS_READS -> anonymousReads;
+            default -> throw new IllegalArgumentException("unknown budget " + name);
+        };
+    }
+
+    // the client a request is counted for: the JWT subject if the chain authenticated one, otherwise the IP. Behind
+    // the proxy that's the client from X-Forwarded-For (server.forward-headers-strategy=native, trusted proxies)
+    public static String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication instanceof JwtAuthenticationToken jwt) {
+            return "sub:" + jwt.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    // 0 if the request is admitted, otherwise how many nanoseconds until the client may send the next one
+    public long acquire(Budget budget, String clientKey) {
+        long waitNanos = budget.acquire(clientKey, System.nanoTime() - origin);
+        if (waitNanos > 0) {
+            MeterRegistry registry = meterRegistryProvider.getIfAvailable();
+            if (registry != null) {
+                registry.counter("gym.admission.rejected", "budget", budget.name).increment();
+            }
+        }
+        return waitNanos;
+    }
+
+    public static final class Budget {
+        private final String name;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final int keysPerStripe;
+        private final ConcurrentHashMap<String, AtomicLong>[] stripes;
+        private final AtomicLong[] overflow;
+        private final AtomicBoolean[] sweeping;
+
+        @SuppressWarnings("unchecked")
+        private Budget(String name, int perMinute, int burst, int stripeCount, int keysPerStripe) {
+            this.name = name;
+            this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+            this.burstNanos = intervalNanos * Math.max(1, burst);
+            this.keysPerStripe = keysPerStripe;
+            this.stripes = new ConcurrentHashMap[stripeCount];
+            this.overflow = new AtomicLong[stripeCount];
+            this.sweeping = new AtomicBoolean[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new ConcurrentHashMap<>();
+                overflow[i] = new AtomicLong();
+                sweeping[i] = new AtomicBoolean();
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        // now: nanoseconds since origin
+        long acquire(String clientKey, long now) {
+            int stripe = stripe(clientKey);
+            while (true) {
+                AtomicLong bucket = bucket(stripe, clientKey, now);
+                long waitNanos = take(bucket, now);
+                // a sweep may have dropped the bucket between the lookup and the update (it was full, so that's
+                // rare) - the request then counts against the bucket that is in the map now
+                if (waitNanos > 0 || bucket == overflow[stripe] || stripes[stripe].get(clientKey) == bucket) {
+                    return waitNanos;
+                }
+            }
+        }
+
+        private long take(AtomicLong bucket, long now) {
+            while (true) {
+                long fullAt = bucket.get();
+                long next = Math.max(fullAt, now) + intervalNanos;
+                long ahead = next - now;
+                if (ahead > burstNanos) {
+                    return ahead - burstNanos;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        private int stripe(String clientKey) {
+            int hash = clientKey.hashCode();
+            return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+        }
+
+        private AtomicLong bucket(int stripe, String clientKey, long now) {
+            ConcurrentHashMap<String, AtomicLong> buckets = stripes[stripe];
+
+            AtomicLong bucket = buckets.get(clientKey);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (buckets.size() >= keysPerStripe) {
+                // one thread cleans up, the others don't wait for it
+                if (sweeping[stripe].compareAndSet(false, true)) {
+                    try {
+                        sweep(buckets, now);
+                    } finally {
+                        sweeping[stripe].set(false);
+                    }
+                }
+                if (buckets.size() >= keysPerStripe) {
+                    return overflow[stripe];
+                }
+            }
+            return buckets.computeIfAbsent(clientKey, key -> new AtomicLong());
+        }
+
+        // only buckets that are (still) full, and only if the key still maps to that bucket
+        private static void sweep(ConcurrentHashMap<String, AtomicLong> buckets, long now) {
+            for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+                AtomicLong bucket = entry.getValue();
+                if (bucket.get() <= now) {
+                    buckets.remove(entry.getKey(), bucket);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.exceptions.TooManyRequestsException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Checks a request against its budget in AdmissionControl. Part of the security chains (not a servlet filter of its
+// own): in the main chain it runs after the bearer token was checked, so writes are counted per JWT subject; the
+// public read chain has no authentication, there it's the client IP.
+// A rejection goes through the ErrorController like any other error: 429 with Retry-After.
+class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private static final PathPatternRequestMatcher.Builder PATHS = PathPatternRequestMatcher.withDefaults();
+
+    private static final RequestMatcher REVIEW_WRITES = new OrRequestMatcher(
+            PATHS.matcher(HttpMethod.POST, "/api/gyms/*/reviews"),
+            PATHS.matcher(HttpMethod.PUT, "/api/gyms/*/reviews/*"),
+            PATHS.matcher(HttpMethod.DELETE, "/api/gyms/*/reviews/*"));
+    private static final RequestMatcher PHOTO_UPLOADS = PATHS.matcher(HttpMethod.POST, "/api/photos/**");
+    private static final RequestMatcher GYM_WRITES = new OrRequestMatcher(
+            PATHS.matcher(HttpMethod.POST, "/api/gyms"),
+            PATHS.matcher(HttpMethod.POST, "/api/gyms/batch"),
+            PATHS.matcher(HttpMethod.PUT, "/api/gyms/*"),
+            PATHS.matcher(HttpMethod.DELETE, "/api/gyms/*"));
+    private static final RequestMatcher ANONYMOUS_READS = new OrRequestMatcher(
+            PATHS.matcher(HttpMethod.GET, "/api/gyms/**"),
+            PATHS.matcher(HttpMethod.HEAD, "/api/gyms/**"),
+            PATHS.matcher(HttpMethod.GET, "/api/photos/**"),
+            PATHS.matcher(HttpMethod.HEAD, "/api/photos/**"));
+
+    private final AdmissionControl admissionControl;
+    private final HandlerExceptionResolver exceptionResolver;
+
+    AdmissionControlFilter(AdmissionControl admissionControl, HandlerExceptionResolver exceptionResolver) {
+        this.admissionControl = admissionControl;
+        this.exceptionResolver = exceptionResolver;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        AdmissionControl.Budget budget = budget(request);
+        if (budget != null) {
+            long waitNanos = admissionControl.acquire(budget, AdmissionControl.clientKey(request));
+            if (waitNanos > 0) {
+                long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999));
+                exceptionResolver.resolveException(request, response, null, new TooManyRequestsException(
+                        "request budget " + budget.name() + " used up", retryAfterSeconds));
+                return;
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private AdmissionControl.Budget budget(HttpServletRequest request) {
+        if (REVIEW_WRITES.matches(request)) {
+            return admissionControl.budget(AdmissionControl.REVIEW_WRITES);
+        }
+        if (PHOTO_UPLOADS.matches(request)) {
+            return admissionControl.budget(AdmissionControl.PHOTO_UPLOADS);
+        }
+        if (GYM_WRITES.matches(request)) {
+            return admissionControl.budget(AdmissionControl.GYM_WRITES);
+        }
+        if (ANONYMOUS_READS.matches(request)) {
+            return admissionControl.budget(AdmissionControl.ANONYMOUS_READS);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.jomeerkatz.gym.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+// thread pools for work we fan out from a single request (e.g. several photos of one batch upload)
+//
+// With spring.threads.virtual.enabled=true Tomcat handles every request on its own virtual thread, and these
+// executors follow: a new virtual thread per task instead of a pool. The thread count setting then becomes a
+// concurrency limit - virtual threads are cheap, but the disk and the geocoder behind them are not.
+//
+// These are plain Executor beans, so boot only creates its applicationTaskExecutor (which spring mvc uses for async
+// requests) because of spring.task.execution.mode=force.
+@Configuration
+public class AsyncConfig {
+
+    @Bean
+    public Executor photoProcessingExecutor(@Value("${app.photo-processing.threads:4}") int threads,
+                                            Environment environment) {
+        return executor("photo-", threads, new ThreadPoolExecutor.AbortPolicy(), environment);
+    }
+
+    @Bean
+    public Executor geocodingExecutor(@Value("${app.geo.batch.threads:4}") int threads,
+                                      Environment environment) {
+        // a big import must not fail because the queue is full, the importing thread then just helps out
+        return executor("geocoding-", threads, new ThreadPoolExecutor.CallerRunsPolicy(), environment);
+    }
+
+    private static Executor executor(String threadNamePrefix, int threads, RejectedExecutionHandler rejectedExecutionHandler,
+                                     Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+            executor.setVirtualThreads(true);
+            // submitting blocks once the limit is reached, which only parks the (virtual) caller
+            executor.setConcurrencyLimit(threads);
+            return executor;
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setRejectedExecutionHandler(rejectedExecutionHandler);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,55 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.services.GymService;
+import com.jomeerkatz.gym.services.PhotoService;
+import com.jomeerkatz.gym.services.ReviewService;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ClassUtils;
+
+import java.util.Map;
+
+// Which service calls run in which bulkhead (see Bulkheads). Streaming searches (GymStreamService) aren't limited
+// here: they return before the work is done, the reactive client has its own backpressure.
+// Photo uploads keep their own limit (PhotoUploadLimiter), photo-io is about serving photos.
+@Configuration
+public class BulkheadConfig {
+
+    private static final Map<Class<?>, Map<String, String>> ROUTES = Map.of(
+            GymService.class, Map.of(
+                    "searchGyms", Bulkheads.SEARCH,
+                    "getGymSummaries", Bulkheads.SEARCH,
+                    "getGym", Bulkheads.DETAIL),
+            ReviewService.class, Map.of(
+                    "listReviews", Bulkheads.DETAIL,
+                    "getReview", Bulkheads.DETAIL,
+                    "listUserReviews", Bulkheads.DETAIL,
+                    "createReview", Bulkheads.REVIEW_WRITES,
+                    "updateReview", Bulkheads.REVIEW_WRITES,
+                    "deleteReview", Bulkheads.REVIEW_WRITES,
+                    "addReviews", Bulkheads.REVIEW_WRITES),
+            PhotoService.class, Map.of(
+                    "getPhotoAsResource", Bulkheads.PHOTO_IO)
+    );
+
+    @Bean
+    public static BeanPostProcessor bulkheadPostProcessor(ObjectProvider<Bulkheads> bulkheads) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                for (Map.Entry<Class<?>, Map<String, String>> routes : ROUTES.entrySet()) {
+                    if (routes.getKey().isInstance(bean)) {
+                        ProxyFactory proxyFactory = new ProxyFactory(bean);
+                        proxyFactory.setInterfaces(ClassUtils.getAllInterfaces(bean));
+                        proxyFactory.addAdvice(new BulkheadInterceptor(routes.getKey(), routes.getValue(), bulkheads));
+                        return proxyFactory.getProxy(bean.getClass().getClassLoader());
+                    }
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.exceptions.OperationTimeoutException;
+import com.jomeerkatz.gym.exceptions.ServiceOverloadedException;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.Map;
+
+// Runs a service call inside its bulkhead: waits at most max-wait for a permit, then sets the deadline the
+// elasticsearch client works against. An exception after the deadline is reported as a timeout, whatever the client
+// wrapped it into.
+// Calls made while another operation is running on the thread (e.g. resolving photos inside a review write) belong to
+// that operation, they don't take a second permit.
+class BulkheadInterceptor implements MethodInterceptor {
+
+    private final String component;
+    // method name -> bulkhead, methods not in here aren't limited
+    private final Map<String, String> routes;
+    private final ObjectProvider<Bulkheads> bulkheadsProvider;
+    private volatile Bulkheads bulkheads;
+
+    BulkheadInterceptor(Class<?> component, Map<String, String> routes, ObjectProvider<Bulkheads> bulkheadsProvider) {
+        this.component = component.getSimpleName();
+        this.routes = routes;
+        this.bulkheadsProvider = bulkheadsProvider;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String route = routes.get(invocation.getMethod().getName());
+        if (route == null || OperationDeadline.current() != null) {
+            return invocation.proceed();
+        }
+
+        Bulkheads.Bulkhead bulkhead = bulkheads().get(route);
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("interrupted while waiting for bulkhead " + bulkhead.name());
+        }
+        if (!acquired) {
+            throw new ServiceOverloadedException("bulkhead " + bulkhead.name() + " is full");
+        }
+
+        OperationDeadline.start(bulkhead.name(), bulkhead.timeoutNanos());
+        try {
+            return invocation.proceed();
+        } catch (Throwable t) {
+            if (OperationDeadline.current().isExpired() && !(t instanceof OperationTimeoutException)) {
+                throw new OperationTimeoutException(
+                        component + "." + invocation.getMethod().getName() + " timed out in bulkhead " + bulkhead.name(), t);
+            }
+            throw t;
+        } finally {
+            OperationDeadline.clear();
+            bulkhead.release();
+        }
+    }
+
+    private Bulkheads bulkheads() {
+        // resolved on the first call, the post processor that creates this interceptor exists before the bean
+        Bulkheads resolved = bulkheads;
+        if (resolved == null) {
+            resolved = bulkheadsProvider.getObject();
+            bulkheads = resolved;
+        }
+        return resolved;
+    }
+}
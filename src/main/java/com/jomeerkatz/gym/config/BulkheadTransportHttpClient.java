@@ -0,0 +1,96 @@
+package com.jomeerkatz.gym.config;
+
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.rest5_client.Rest5ClientHttpClient;
+import co.elastic.clients.transport.rest5_client.Rest5ClientOptions;
+import co.elastic.clients.transport.rest5_client.low_level.RequestOptions;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5Client;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// The http layer under the elasticsearch client, aware of the operation running on the thread (OperationDeadline):
+// - review writes go through their own client with its own connection pool, a write storm can't take the
+//   connections searches need
+// - a request gets at most the time left until the operation's deadline, for waiting on a pooled connection and for
+//   the response. Past the deadline it isn't sent at all. Everything else of the request config stays as the client
+//   has it
+// Everything else (no operation, async requests of the reactive client) uses the default client as it is.
+class BulkheadTransportHttpClient implements TransportHttpClient {
+
+    private final Rest5ClientHttpClient defaultClient;
+    private final Rest5ClientHttpClient writeClient;
+    // what both clients use for a request without a config of its own
+    private final RequestConfig clientRequestConfig;
+
+    BulkheadTransportHttpClient(Rest5Client defaultClient, Rest5Client writeClient, RequestConfig clientRequestConfig) {
+        this.defaultClient = new Rest5ClientHttpClient(defaultClient);
+        this.writeClient = new Rest5ClientHttpClient(writeClient);
+        this.clientRequestConfig = clientRequestConfig;
+    }
+
+    @Override
+    public TransportOptions createOptions(TransportOptions options) {
+        return defaultClient.createOptions(options);
+    }
+
+    @Override
+    public Response performRequest(String endpointId, Node node, Request request, TransportOptions options)
+            throws IOException {
+        OperationDeadline deadline = OperationDeadline.current();
+        if (deadline == null) {
+            return defaultClient.performRequest(endpointId, node, request, options);
+        }
+
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos());
+        if (remainingMillis <= 0) {
+            throw new SocketTimeoutException("deadline of the " + deadline.bulkhead() + " operation passed");
+        }
+        Rest5ClientHttpClient client = deadline.bulkhead().equals(Bulkheads.REVIEW_WRITES) ? writeClient : defaultClient;
+        return client.performRequest(endpointId, node, request, withTimeout(options, remainingMillis));
+    }
+
+    @Override
+    public CompletableFuture<Response> performRequestAsync(String endpointId, Node node, Request request,
+                                                          TransportOptions options) {
+        return defaultClient.performRequestAsync(endpointId, node, request, options);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeClient.close();
+        } finally {
+            defaultClient.close();
+        }
+    }
+
+    // a config set on a request replaces the client's whole default config, so start from the one in effect
+    private TransportOptions withTimeout(TransportOptions options, long timeoutMillis) {
+        Rest5ClientOptions clientOptions = Rest5ClientOptions.of(options);
+        RequestOptions requestOptions = clientOptions.restClientRequestOptions();
+        RequestConfig requestConfig = requestOptions.getRequestConfig() != null
+                ? requestOptions.getRequestConfig()
+                : clientRequestConfig;
+        RequestOptions withTimeout = requestOptions.toBuilder()
+                .setRequestConfig(RequestConfig.copy(requestConfig)
+                        .setConnectionRequestTimeout(shorter(requestConfig.getConnectionRequestTimeout(), timeoutMillis))
+                        .setResponseTimeout(shorter(requestConfig.getResponseTimeout(), timeoutMillis))
+                        .build())
+                .build();
+        return new Rest5ClientOptions(withTimeout, clientOptions.keepResponseBodyOnException());
+    }
+
+    // a configured timeout that is shorter than the deadline stays
+    private static Timeout shorter(Timeout configured, long timeoutMillis) {
+        if (configured == null || configured.isDisabled() || configured.toMilliseconds() > timeoutMillis) {
+            return Timeout.ofMilliseconds(timeoutMillis);
+        }
+        return configured;
+    }
+}
@@ -0,0 +1,105 @@
+package com.jomeerkatz.gym.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Separate concurrency limits for the kinds of work that compete for request threads and elasticsearch connections,
+// so a burst of one kind can't slow down the others:
+//   search         gym searches and multi-gets
+//   detail         a gym or its reviews by id
+//   review-writes  creating, updating and deleting reviews (also has its own elasticsearch connection pool)
+//   photo-io       serving photos from the storage
+// A full bulkhead doesn't queue for long: after max-wait the request is answered with 503 right away. Each operation
+// also has a timeout, its elasticsearch calls are aborted when it's up (503 as well) - except photo-io: the service
+// only opens the file, it's streamed to the client after the call returned, so a timeout there wouldn't bound anything.
+// photo-io only limits how many photos are opened at once.
+// Applied to the services by BulkheadConfig.
+@Component
+public class Bulkheads implements MeterBinder {
+
+    public static final String SEARCH = "search";
+    public static final String DETAIL = "detail";
+    public static final String REVIEW_WRITES = "review-writes";
+    public static final String PHOTO_IO = "photo-io";
+
+    private final Bulkhead search;
+    private final Bulkhead detail;
+    private final Bulkhead reviewWrites;
+    private final Bulkhead photoIo;
+
+    public Bulkheads(
+            @Value("${app.bulkhead.max-wait:50ms}") Duration maxWait,
+            @Value("${app.bulkhead.search.max-concurrent:64}") int searchMaxConcurrent,
+            @Value("${app.bulkhead.search.timeout:2s}") Duration searchTimeout,
+            @Value("${app.bulkhead.detail.max-concurrent:128}") int detailMaxConcurrent,
+            @Value("${app.bulkhead.detail.timeout:1s}") Duration detailTimeout,
+            @Value("${app.bulkhead.review-writes.max-concurrent:16}") int reviewWritesMaxConcurrent,
+            @Value("${app.bulkhead.review-writes.timeout:5s}") Duration reviewWritesTimeout,
+            @Value("${app.bulkhead.photo-io.max-concurrent:32}") int photoIoMaxConcurrent
+    ) {
+        this.search = new Bulkhead(SEARCH, searchMaxConcurrent, maxWait, searchTimeout);
+        this.detail = new Bulkhead(DETAIL, detailMaxConcurrent, maxWait, detailTimeout);
+        this.reviewWrites = new Bulkhead(REVIEW_WRITES, reviewWritesMaxConcurrent, maxWait, reviewWritesTimeout);
+        this.photoIo = new Bulkhead(PHOTO_IO, photoIoMaxConcurrent, maxWait, null);
+    }
+
+    public Bulkhead get(String name) {
+        return switch (name) {
+            case SEARCH -> search;
+            case DETAIL -> detail;
+            case REVIEW_WRITES -> reviewWrites;
+            case PHOTO_IO -> photoIo;
+            default -> throw new IllegalArgumentException("unknown bulkhead " + name);
+        };
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Bulkhead bulkhead : List.of(search, detail, reviewWrites, photoIo)) {
+            Gauge.builder("gym.bulkhead.active", bulkhead, b -> b.maxConcurrent - b.permits.availablePermits())
+                    .tag("bulkhead", bulkhead.name)
+                    .register(registry);
+        }
+    }
+
+    public static final class Bulkhead {
+        private final String name;
+        private final int maxConcurrent;
+        private final Semaphore permits;
+        private final long maxWaitNanos;
+        private final long timeoutNanos;
+
+        // timeout null: no timeout
+        private Bulkhead(String name, int maxConcurrent, Duration maxWait, Duration timeout) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent, true);
+            this.maxWaitNanos = maxWait.toNanos();
+            this.timeoutNanos = timeout != null ? timeout.toNanos() : Long.MAX_VALUE;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long timeoutNanos() {
+            return timeoutNanos;
+        }
+
+        public boolean tryAcquire() throws InterruptedException {
+            return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void release() {
+            permits.release();
+        }
+    }
+}
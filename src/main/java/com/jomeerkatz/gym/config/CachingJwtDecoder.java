@@ -0,0 +1,90 @@
+package com.jomeerkatz.gym.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Remembers tokens the actual decoder accepted, so a client sending the same token again and again (the frontend does
+// for every request until the token expires) is verified once instead of on every request.
+// - keyed by the SHA-256 of the token, the cache never holds usable tokens
+// - an entry is valid until the token's exp, tokens without exp aren't cached
+// - only successful validations are cached, a rejected token goes through the decoder every time
+// - bounded: when full, expired entries are swept; if it's still full the new token just isn't cached. No LRU on
+//   purpose - hits are lock free, which is the point of a cache on the path of every authenticated request
+public class CachingJwtDecoder implements JwtDecoder, MeterBinder {
+
+    private final JwtDecoder delegate;
+    private final int maxEntries;
+    private final Clock clock;
+
+    private final ConcurrentHashMap<ByteBuffer, Jwt> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingJwtDecoder(JwtDecoder delegate, int maxEntries, Clock clock) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    @Override
+    public Jwt decode(String token) throws JwtException {
+        ByteBuffer key = hash(token);
+        Instant now = clock.instant();
+
+        Jwt cached = cache.get(key);
+        if (cached != null) {
+            if (now.isBefore(cached.getExpiresAt())) {
+                hits.increment();
+                return cached;
+            }
+            cache.remove(key, cached);
+        }
+        misses.increment();
+
+        Jwt jwt = delegate.decode(token);
+        if (jwt.getExpiresAt() != null && now.isBefore(jwt.getExpiresAt())) {
+            if (cache.size() >= maxEntries) {
+                evictExpired(now);
+            }
+            if (cache.size() < maxEntries) {
+                cache.put(key, jwt);
+            }
+        }
+        return jwt;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gym.jwt.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("gym.jwt.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        Gauge.builder("gym.jwt.cache.size", cache, ConcurrentHashMap::size).register(registry);
+    }
+
+    private void evictExpired(Instant now) {
+        cache.values().removeIf(jwt -> !now.isBefore(jwt.getExpiresAt()));
+    }
+
+    private static ByteBuffer hash(String token) {
+        try {
+            // MessageDigest isn't thread safe, a new instance is cheap
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.jomeerkatz.gym.config;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.ElasticsearchTransportBase;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.instrumentation.Instrumentation;
+import co.elastic.clients.transport.rest5_client.Rest5ClientOptions;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5Client;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5ClientBuilder;
+import com.jomeerkatz.gym.services.impl.ElasticsearchQueryProfiler;
+import com.jomeerkatz.gym.services.impl.SlowQueryLog;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.elasticsearch.autoconfigure.Rest5ClientBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.time.Duration;
+
+// Same transport spring boot would create, plus our instrumentation (slow log, metrics, dev profiling) and the
+// bulkhead aware http layer (separate connection pool for review writes, per operation timeouts, see
+// BulkheadTransportHttpClient). Everything talking to elasticsearch - repositories, ElasticsearchOperations, the
+// reactive client - goes through it.
+@Configuration
+public class ElasticsearchConfig {
+
+    // runs after every other customizer, so it sees the request config the clients end up with
+    @Bean
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public ClientRequestConfig clientRequestConfig() {
+        return new ClientRequestConfig();
+    }
+
+    @Bean
+    public ElasticsearchTransport restClientTransport(
+            Rest5Client restClient,
+            Rest5ClientBuilder restClientBuilder,
+            ClientRequestConfig clientRequestConfig,
+            JsonpMapper jsonpMapper,
+            ObjectProvider<Rest5ClientOptions> transportOptions,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            SlowQueryLog slowQueryLog,
+            ObjectProvider<ElasticsearchQueryProfiler> profiler,
+            @Value("${app.elasticsearch.slow-log.threshold:500ms}") Duration slowThreshold,
+            @Value("${app.elasticsearch.slow-log.max-query-length:10000}") int maxQueryLength
+    ) {
+        ElasticsearchQueryInstrumentation instrumentation = new ElasticsearchQueryInstrumentation(
+                meterRegistry, slowQueryLog, profiler, slowThreshold, maxQueryLength);
+        // spring boot's builder again: same nodes, credentials and ssl, but a connection pool of its own
+        Rest5Client writeClient = restClientBuilder.build();
+        TransportHttpClient httpClient = new BulkheadTransportHttpClient(restClient, writeClient,
+                clientRequestConfig.get());
+        return new GymElasticsearchTransport(httpClient, transportOptions.getIfAvailable(), jsonpMapper, instrumentation);
+    }
+
+    // The default request config of the clients spring boot's builder creates, the client doesn't give it out. A
+    // request with a config of its own gets none of the defaults, BulkheadTransportHttpClient starts from this one.
+    static final class ClientRequestConfig implements Rest5ClientBuilderCustomizer {
+
+        private volatile RequestConfig requestConfig;
+
+        @Override
+        public void customize(Rest5ClientBuilder builder) {
+        }
+
+        @Override
+        public void customize(RequestConfig.Builder builder) {
+            requestConfig = builder.build();
+        }
+
+        // the client's RequestConfig.DEFAULT if it wasn't built by spring boot's builder
+        RequestConfig get() {
+            return requestConfig != null ? requestConfig : RequestConfig.DEFAULT;
+        }
+    }
+
+    // what Rest5ClientTransport is, minus the fixed http client
+    private static final class GymElasticsearchTransport extends ElasticsearchTransportBase {
+
+        private GymElasticsearchTransport(TransportHttpClient httpClient, TransportOptions options, JsonpMapper mapper,
+                                          Instrumentation instrumentation) {
+            super(httpClient, options, mapper, instrumentation);
+        }
+
+        @Override
+        protected ElasticsearchTransportBase cloneWith(TransportOptions options, JsonpMapper mapper,
+                                                       Instrumentation instrumentation) {
+            return new GymElasticsearchTransport(httpClient,
+                    options != null ? options : transportOptions,
+                    mapper != null ? mapper : this.mapper,
+                    instrumentation != null ? instrumentation : this.instrumentation);
+        }
+    }
+}
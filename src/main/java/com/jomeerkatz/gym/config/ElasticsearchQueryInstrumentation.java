@@ -0,0 +1,184 @@
+package com.jomeerkatz.gym.config;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.instrumentation.Instrumentation;
+import com.jomeerkatz.gym.domain.SlowQuery;
+import com.jomeerkatz.gym.services.impl.ElasticsearchQueryProfiler;
+import com.jomeerkatz.gym.services.impl.SlowQueryLog;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Hooks into the elasticsearch client itself, so it sees every request no matter where it comes from (repository
+// @Query templates, NativeQuery, the reactive client, bulk writes):
+// - gym.elasticsearch.requests{endpoint, status}: latency per elasticsearch api
+// - gym.elasticsearch.response.bytes{endpoint}: response sizes
+// - requests slower than the threshold go to the SlowQueryLog with the query as it was sent, took and hit counts
+// - searches of a ?profile=true request are profiled (dev only, see ElasticsearchQueryProfiler)
+// - the round trip counts towards the "es" phase of a Server-Timing header (see RequestTiming)
+//
+// The request body is only turned into a string for slow or profiled requests, the fast path just keeps a reference.
+// Only query bodies are kept at all: the body of a write (index, bulk, update) is the document - review texts and
+// usernames, which must not end up in the logs.
+class ElasticsearchQueryInstrumentation implements Instrumentation {
+
+    private static final ThreadScope NO_SCOPE = () -> {
+    };
+    private static final Set<String> QUERY_ENDPOINTS = Set.of("search", "msearch", "count");
+
+    private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+    private final SlowQueryLog slowQueryLog;
+    private final ObjectProvider<ElasticsearchQueryProfiler> profilerProvider;
+    private final long thresholdNanos;
+    private final int maxQueryLength;
+
+    ElasticsearchQueryInstrumentation(ObjectProvider<MeterRegistry> meterRegistryProvider,
+                                      SlowQueryLog slowQueryLog,
+                                      ObjectProvider<ElasticsearchQueryProfiler> profilerProvider,
+                                      Duration threshold,
+                                      int maxQueryLength) {
+        this.meterRegistryProvider = meterRegistryProvider;
+        this.slowQueryLog = slowQueryLog;
+        this.profilerProvider = profilerProvider;
+        this.thresholdNanos = threshold.toNanos();
+        this.maxQueryLength = maxQueryLength;
+    }
+
+    @Override
+    public <TRequest> Context newContext(TRequest request, Endpoint<TRequest, ?, ?> endpoint) {
+        // ids look like "es/search", the prefix is the same for every api
+        String id = endpoint.id();
+        return new RequestContext(id.startsWith("es/") ? id.substring(3) : id);
+    }
+
+    private final class RequestContext implements Context {
+        private final String endpoint;
+        private final long start = System.nanoTime();
+        private String method;
+        private String path;
+        private List<ByteBuffer> body = List.of();
+        private int status;
+        private long responseBytes = -1;
+        private Long tookMillis;
+        private Long totalHits;
+        private Integer returnedHits;
+
+        private RequestContext(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public ThreadScope makeCurrent() {
+            return NO_SCOPE;
+        }
+
+        @Override
+        public void beforeSendingHttpRequest(TransportHttpClient.Request httpRequest, TransportOptions options) {
+            method = httpRequest.method();
+            path = httpRequest.path();
+            if (httpRequest.body() != null && QUERY_ENDPOINTS.contains(endpoint)) {
+                // duplicates share the bytes, sending the request can't move our read position
+                List<ByteBuffer> buffers = new ArrayList<>();
+                httpRequest.body().forEach(buffer -> buffers.add(buffer.duplicate()));
+                body = buffers;
+            }
+        }
+
+        @Override
+        public void afterReceivingHttpResponse(TransportHttpClient.Response httpResponse) {
+            status = httpResponse.statusCode();
+            // the header instead of the body, reading the body here would consume it
+            String contentLength = httpResponse.header("content-length");
+            if (contentLength != null) {
+                responseBytes = Long.parseLong(contentLength);
+            }
+        }
+
+        @Override
+        public <TResponse> void afterDecodingApiResponse(TResponse response) {
+            if (response instanceof SearchResponse<?> searchResponse) {
+                tookMillis = searchResponse.took();
+                returnedHits = searchResponse.hits().hits().size();
+                if (searchResponse.hits().total() != null) {
+                    totalHits = searchResponse.hits().total().value();
+                }
+            }
+        }
+
+        @Override
+        public void recordException(Throwable throwable) {
+            if (status == 0) {
+                status = -1;
+            }
+        }
+
+        @Override
+        public void close() {
+            long durationNanos = System.nanoTime() - start;
+            RequestTiming.add(RequestTiming.ELASTICSEARCH, durationNanos);
+
+            MeterRegistry registry = meterRegistryProvider.getIfAvailable();
+            if (registry != null) {
+                Timer.builder("gym.elasticsearch.requests")
+                        .tags("endpoint", endpoint, "status", String.valueOf(status))
+                        .register(registry)
+                        .record(durationNanos, TimeUnit.NANOSECONDS);
+                if (responseBytes >= 0) {
+                    DistributionSummary.builder("gym.elasticsearch.response.bytes")
+                            .baseUnit("bytes")
+                            .tags("endpoint", endpoint)
+                            .register(registry)
+                            .record(responseBytes);
+                }
+            }
+
+            if (durationNanos >= thresholdNanos) {
+                slowQueryLog.record(SlowQuery.builder()
+                        .timestamp(Instant.now())
+                        .endpoint(endpoint)
+                        .method(method)
+                        .path(path)
+                        .status(status)
+                        .durationMillis(TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                        .tookMillis(tookMillis)
+                        .totalHits(totalHits)
+                        .returnedHits(returnedHits)
+                        .responseBytes(responseBytes)
+                        .query(body.isEmpty() ? null : truncate(bodyAsString()))
+                        .build());
+            }
+
+            if (endpoint.equals("search") && path != null) {
+                ElasticsearchQueryProfiler profiler = profilerProvider.getIfAvailable();
+                if (profiler != null && profiler.isActive()) {
+                    profiler.profile(path, bodyAsString());
+                }
+            }
+        }
+
+        private String bodyAsString() {
+            StringBuilder builder = new StringBuilder();
+            for (ByteBuffer buffer : body) {
+                builder.append(StandardCharsets.UTF_8.decode(buffer.duplicate()));
+            }
+            return builder.toString();
+        }
+
+        private String truncate(String query) {
+            return query.length() <= maxQueryLength ? query : query.substring(0, maxQueryLength) + "...";
+        }
+    }
+}
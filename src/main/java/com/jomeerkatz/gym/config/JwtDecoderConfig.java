@@ -0,0 +1,82 @@
+package com.jomeerkatz.gym.config;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+
+// Replaces the JwtDecoder spring boot would build from the issuer-uri:
+// - the keycloak key set (JWKS) is cached and refreshed in the background before it expires (refresh-ahead), request
+//   threads keep using the cached keys while that happens. If keycloak is down the old keys are used for the outage
+//   tolerance, and the key set is fetched once at startup so the first request doesn't wait for it either.
+//   A token signed with a key we have never seen still fetches the key set right away (rate limited) - there's no
+//   other way to verify it, but keycloak publishes new keys before signing with them so the refresh usually has them.
+// - validated tokens are cached until they expire (CachingJwtDecoder)
+@Configuration
+@Slf4j
+public class JwtDecoderConfig {
+
+    @Bean
+    public CachingJwtDecoder jwtDecoder(
+            @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri}") String issuerUri,
+            // keycloak serves its keys under the realm, set this for other issuers
+            @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri:}") String jwkSetUri,
+            @Value("${app.security.jwks.ttl:10m}") Duration jwksTtl,
+            @Value("${app.security.jwks.refresh-ahead:1m}") Duration jwksRefreshAhead,
+            @Value("${app.security.jwks.fetch-timeout:15s}") Duration jwksFetchTimeout,
+            @Value("${app.security.jwks.outage-tolerance:6h}") Duration jwksOutageTolerance,
+            @Value("${app.security.jwt.cache.max-entries:10000}") int maxCachedTokens
+    ) throws MalformedURLException {
+        String keySetUri = jwkSetUri.isBlank()
+                ? issuerUri.replaceAll("/+$", "") + "/protocol/openid-connect/certs"
+                : jwkSetUri;
+        JWKSource<SecurityContext> jwkSource = JWKSourceBuilder.<SecurityContext>create(URI.create(keySetUri).toURL())
+                .cache(jwksTtl.toMillis(), jwksFetchTimeout.toMillis())
+                // scheduled: refreshed shortly before it expires even when no request comes in
+                .refreshAheadCache(jwksRefreshAhead.toMillis(), true)
+                .outageTolerant(jwksOutageTolerance.toMillis())
+                .build();
+        prefetch(jwkSource, keySetUri);
+
+        return new CachingJwtDecoder(nimbusJwtDecoder(jwkSource, issuerUri), maxCachedTokens, Clock.systemUTC());
+    }
+
+    // the validation spring boot sets up for an issuer-uri: signature, exp / nbf and iss
+    static NimbusJwtDecoder nimbusJwtDecoder(JWKSource<SecurityContext> jwkSource, String issuerUri) {
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.Family.SIGNATURE, jwkSource));
+        // spring validates the claims itself (JwtValidators below)
+        processor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+        NimbusJwtDecoder decoder = new NimbusJwtDecoder(processor);
+        decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(issuerUri));
+        return decoder;
+    }
+
+    private static void prefetch(JWKSource<SecurityContext> jwkSource, String keySetUri) {
+        // in the background, keycloak not being up yet must not stop the application from starting
+        Thread.ofVirtual().name("jwks-prefetch").start(() -> {
+            try {
+                jwkSource.get(new JWKSelector(new JWKMatcher.Builder().build()), null);
+            } catch (KeySourceException e) {
+                log.warn("could not prefetch the key set from {}, first request will fetch it", keySetUri, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.services.GymService;
+import com.jomeerkatz.gym.services.PhotoService;
+import com.jomeerkatz.gym.services.ReviewService;
+import com.jomeerkatz.gym.services.StorageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ClassUtils;
+
+import java.util.Map;
+
+// Times every call of the services and of the gym repository (see TimedInvocationInterceptor), scraped by
+// prometheus from /actuator/prometheus. The SLO buckets are configured in application.properties.
+@Configuration
+public class MetricsConfig {
+
+    static final String SERVICE_METRIC = "gym.service";
+    static final String REPOSITORY_METRIC = "gym.repository";
+
+    // interface -> metric its calls are recorded under
+    private static final Map<Class<?>, String> INSTRUMENTED = Map.of(
+            GymService.class, SERVICE_METRIC,
+            ReviewService.class, SERVICE_METRIC,
+            PhotoService.class, SERVICE_METRIC,
+            StorageService.class, SERVICE_METRIC,
+            GymRepository.class, REPOSITORY_METRIC
+    );
+
+    // static + ObjectProvider: a post processor is created very early, the registry must only be looked up on use
+    @Bean
+    public static BeanPostProcessor timedInvocationPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                for (Map.Entry<Class<?>, String> instrumented : INSTRUMENTED.entrySet()) {
+                    if (instrumented.getKey().isInstance(bean)) {
+                        return addTiming(bean, instrumented.getKey(), instrumented.getValue(), meterRegistry);
+                    }
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static Object addTiming(Object bean, Class<?> component, String metricName,
+                                    ObjectProvider<MeterRegistry> meterRegistry) {
+        TimedInvocationInterceptor interceptor = new TimedInvocationInterceptor(metricName, component, meterRegistry);
+        // spring data repositories already are proxies, we just add to their chain
+        if (bean instanceof Advised advised && !advised.isFrozen()) {
+            advised.addAdvice(0, interceptor);
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setInterfaces(ClassUtils.getAllInterfaces(bean));
+        proxyFactory.addAdvice(interceptor);
+        return proxyFactory.getProxy(bean.getClass().getClassLoader());
+    }
+}
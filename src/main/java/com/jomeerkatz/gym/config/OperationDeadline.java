@@ -0,0 +1,67 @@
+package com.jomeerkatz.gym.config;
+
+import java.time.Duration;
+
+// The bulkhead and deadline of the operation running on this thread (set by BulkheadInterceptor), read by the
+// elasticsearch client (BulkheadTransportHttpClient) to pick the connection pool and the response timeout.
+public final class OperationDeadline {
+
+    private static final ThreadLocal<OperationDeadline> CURRENT = new ThreadLocal<>();
+
+    private final String bulkhead;
+    private final long startNanos;
+    // Long.MAX_VALUE for none, that's why there's no "deadline = start + timeout" (it would overflow)
+    private final long timeoutNanos;
+
+    private OperationDeadline(String bulkhead, long startNanos, long timeoutNanos) {
+        this.bulkhead = bulkhead;
+        this.startNanos = startNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    static OperationDeadline current() {
+        return CURRENT.get();
+    }
+
+    static void start(String bulkhead, long timeoutNanos) {
+        CURRENT.set(new OperationDeadline(bulkhead, System.nanoTime(), timeoutNanos));
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    // for work a thread does on behalf of other operations (GymWriteCoalescer saving the gyms of other callers): it
+    // runs against a deadline of its own instead of the one of this thread's operation, which is put back afterwards
+    public static void runWithin(String bulkhead, Duration timeout, Runnable work) {
+        OperationDeadline previous = CURRENT.get();
+        start(bulkhead, timeout.toNanos());
+        try {
+            work.run();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    // what's left of the operation running on this thread, Long.MAX_VALUE if there is none or it has no timeout
+    public static long currentRemainingNanos() {
+        OperationDeadline deadline = CURRENT.get();
+        return deadline != null ? deadline.remainingNanos() : Long.MAX_VALUE;
+    }
+
+    String bulkhead() {
+        return bulkhead;
+    }
+
+    long remainingNanos() {
+        return timeoutNanos - (System.nanoTime() - startNanos);
+    }
+
+    boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+}
@@ -0,0 +1,37 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.services.impl.ElasticsearchQueryProfiler;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// dev only: ?profile=true turns on elasticsearch profiling for the searches of this request
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.elasticsearch.profile.enabled", havingValue = "true")
+public class QueryProfileFilter extends OncePerRequestFilter {
+
+    private final ElasticsearchQueryProfiler profiler;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!"true".equals(request.getParameter("profile"))) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        profiler.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            profiler.stop();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.services.impl.ElasticsearchQueryProfiler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// dev only: for a ?profile=true request the json body becomes {"data": <normal body>, "elasticsearchProfiles": [...]}
+@ControllerAdvice
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.elasticsearch.profile.enabled", havingValue = "true")
+public class QueryProfileResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    private final ElasticsearchQueryProfiler profiler;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!profiler.isActive() || body instanceof String || !MediaType.APPLICATION_JSON.isCompatibleWith(selectedContentType)) {
+            return body;
+        }
+        Map<String, Object> profiled = new LinkedHashMap<>();
+        profiled.put("data", body);
+        profiled.put("elasticsearchProfiles", profiler.current());
+        return profiled;
+    }
+}
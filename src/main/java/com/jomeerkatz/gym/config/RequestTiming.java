@@ -0,0 +1,111 @@
+package com.jomeerkatz.gym.config;
+
+// Per request phase timings for the Server-Timing header (see ServerTimingFilter).
+//
+// Recording is meant to be sprinkled into hot code, so it has to be close to free:
+// - a request that isn't sampled has no timing context, a phase costs one ThreadLocal lookup and nothing else
+// - a sampled request gets one RequestTiming with fixed size arrays, recording a phase allocates nothing
+// Phases are compared by identity, always pass one of the constants below.
+//
+//   long start = RequestTiming.start();
+//   ... work ...
+//   RequestTiming.record(RequestTiming.SORT, start);
+public final class RequestTiming {
+
+    public static final String AUTH = "auth";
+    public static final String ELASTICSEARCH = "es";
+    public static final String SORT = "sort";
+    public static final String MAPPING = "map";
+    public static final String SERIALIZATION = "ser";
+
+    private static final int MAX_PHASES = 8;
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final String[] phases = new String[MAX_PHASES];
+    private final long[] nanos = new long[MAX_PHASES];
+    private final int[] counts = new int[MAX_PHASES];
+    private int size;
+    private long serializationStartNanos;
+
+    private RequestTiming() {
+    }
+
+    static RequestTiming begin() {
+        RequestTiming timing = new RequestTiming();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    // 0 when the request isn't timed, record() ignores it then
+    public static long start() {
+        return CURRENT.get() != null ? System.nanoTime() : 0;
+    }
+
+    public static void record(String phase, long start) {
+        if (start != 0) {
+            add(phase, System.nanoTime() - start);
+        }
+    }
+
+    // for code that measures its duration anyway (e.g. the elasticsearch client instrumentation)
+    public static void add(String phase, long durationNanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.accumulate(phase, durationNanos);
+        }
+    }
+
+    // the response body is handed to the message converter now - everything until the first byte goes out is
+    // serialization
+    public static void markSerializationStart() {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.serializationStartNanos = System.nanoTime();
+        }
+    }
+
+    private void accumulate(String phase, long durationNanos) {
+        for (int i = 0; i < size; i++) {
+            if (phases[i] == phase) {
+                nanos[i] += durationNanos;
+                counts[i]++;
+                return;
+            }
+        }
+        if (size < MAX_PHASES) {
+            phases[size] = phase;
+            nanos[size] = durationNanos;
+            counts[size] = 1;
+            size++;
+        }
+    }
+
+    // e.g. auth;dur=1.2, es;dur=35.1;desc="2 calls", map;dur=0.4, total;dur=40.2
+    String toHeaderValue() {
+        if (serializationStartNanos != 0) {
+            accumulate(SERIALIZATION, System.nanoTime() - serializationStartNanos);
+            serializationStartNanos = 0;
+        }
+        StringBuilder header = new StringBuilder(32 * (size + 1));
+        for (int i = 0; i < size; i++) {
+            appendMetric(header, phases[i], nanos[i]);
+            if (counts[i] > 1) {
+                header.append(";desc=\"").append(counts[i]).append(" calls\"");
+            }
+            header.append(", ");
+        }
+        appendMetric(header, "total", System.nanoTime() - startNanos);
+        return header.toString();
+    }
+
+    private static void appendMetric(StringBuilder header, String name, long durationNanos) {
+        // milliseconds with one decimal
+        long tenthsOfMillis = durationNanos / 100_000;
+        header.append(name).append(";dur=").append(tenthsOfMillis / 10).append('.').append(tenthsOfMillis % 10);
+    }
+}
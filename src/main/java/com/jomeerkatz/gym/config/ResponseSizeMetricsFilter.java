@@ -0,0 +1,221 @@
+package com.jomeerkatz.gym.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// gym.http.response.bytes{method, uri, status}: how big our responses are per endpoint (uri is the mapping pattern,
+// e.g. /api/gyms/{gym_id}). Counts what goes through the output stream or the writer (in the response's encoding),
+// streamed responses are recorded when the async request completes. The summaries are built once per tag combination.
+@Component
+@RequiredArgsConstructor
+public class ResponseSizeMetricsFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<SummaryTags, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        CountingResponse countingResponse = new CountingResponse(response);
+        // the listener goes on when async starts, a streamed response may complete before doFilter returns
+        AsyncAwareRequest asyncAwareRequest = new AsyncAwareRequest(request, () -> record(request, countingResponse));
+        filterChain.doFilter(asyncAwareRequest, countingResponse);
+
+        if (!asyncAwareRequest.asyncStarted) {
+            record(request, countingResponse);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // the bytes of an async dispatch go through the wrapper of the initial request
+        return true;
+    }
+
+    private void record(HttpServletRequest request, CountingResponse response) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        SummaryTags tags = new SummaryTags(request.getMethod(),
+                // unmatched requests (404s, static probes) would blow up the number of time series
+                pattern != null ? pattern.toString() : "UNKNOWN",
+                String.valueOf(response.getStatus()));
+        summaries.computeIfAbsent(tags, key -> DistributionSummary.builder("gym.http.response.bytes")
+                        .baseUnit("bytes")
+                        .tags("method", key.method(), "uri", key.uri(), "status", key.status())
+                        .register(meterRegistry))
+                .record(response.bytes);
+    }
+
+    private record SummaryTags(String method, String uri, String status) {
+    }
+
+    // adds the completion listener to the async context as soon as it is started
+    private static final class AsyncAwareRequest extends HttpServletRequestWrapper {
+        private final Runnable onComplete;
+        private boolean asyncStarted;
+
+        private AsyncAwareRequest(HttpServletRequest request, Runnable onComplete) {
+            super(request);
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public AsyncContext startAsync() throws IllegalStateException {
+            return listen(super.startAsync());
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse)
+                throws IllegalStateException {
+            return listen(super.startAsync(servletRequest, servletResponse));
+        }
+
+        private AsyncContext listen(AsyncContext asyncContext) {
+            if (!asyncStarted) {
+                asyncStarted = true;
+                asyncContext.addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        onComplete.run();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            }
+            return asyncContext;
+        }
+    }
+
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+        // written from the request thread and, for streamed responses, from the async writer
+        private volatile long bytes;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                Writer delegate = super.getWriter();
+                // the encoding is fixed once the writer is taken
+                Charset charset = Charset.forName(getCharacterEncoding());
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(char[] cbuf, int off, int len) throws IOException {
+                        delegate.write(cbuf, off, len);
+                        bytes += encodedLength(CharBuffer.wrap(cbuf, off, len), charset);
+                    }
+
+                    @Override
+                    public void write(String str, int off, int len) throws IOException {
+                        delegate.write(str, off, len);
+                        bytes += encodedLength(CharBuffer.wrap(str, off, off + len), charset);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+                });
+            }
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        bytes++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        delegate.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        private static long encodedLength(CharBuffer chars, Charset charset) {
+            if (!charset.equals(StandardCharsets.UTF_8)) {
+                return charset.encode(chars).remaining();
+            }
+            // without encoding: surrogate pairs are 4 bytes, 2 chars
+            long length = 0;
+            for (int i = 0; i < chars.length(); i++) {
+                char c = chars.charAt(i);
+                length += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;
+            }
+            return length;
+        }
+    }
+}
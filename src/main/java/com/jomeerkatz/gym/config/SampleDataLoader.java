@@ -53,10 +53,12 @@ public class SampleDataLoader {
                         log.warn("⚠️ Image not found: " + fileName);
                     }
 
-                    gymService.createGym(gym);
-                    log.info("✅ Created gym: " + gym.getName());
                 }
 
+                // one geocoding batch and one bulk index request for all sample gyms
+                long created = gymService.createGyms(gyms).stream().filter(result -> result.getGym() != null).count();
+                log.info("✅ Created " + created + " of " + gyms.size() + " gyms");
+
                 log.info("✨ Sample data loaded successfully!");
 
             } catch (Exception e) {
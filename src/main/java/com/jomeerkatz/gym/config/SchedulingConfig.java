@@ -0,0 +1,36 @@
+package com.jomeerkatz.gym.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+// activates @Scheduled methods (background jobs like the orphaned photo collector). Each job has a scheduler thread
+// of its own, a long run of one (a full index scan) doesn't delay the others: the pool of boot's scheduler is sized to
+// the number of jobs once they are all registered, so a new job doesn't need a config change. With virtual threads
+// every run gets a thread of its own anyway.
+@Configuration
+@EnableScheduling
+public class SchedulingConfig implements SchedulingConfigurer {
+
+    private final ObjectProvider<ThreadPoolTaskScheduler> taskScheduler;
+
+    public SchedulingConfig(ObjectProvider<ThreadPoolTaskScheduler> taskScheduler) {
+        this.taskScheduler = taskScheduler;
+    }
+
+    // called after every @Scheduled method was registered, before the jobs are started
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        int jobs = registrar.getCronTaskList().size()
+                + registrar.getFixedDelayTaskList().size()
+                + registrar.getFixedRateTaskList().size()
+                + registrar.getTriggerTaskList().size();
+        ThreadPoolTaskScheduler scheduler = taskScheduler.getIfUnique();
+        if (scheduler != null && scheduler.getPoolSize() < jobs) {
+            scheduler.setPoolSize(jobs);
+        }
+    }
+}
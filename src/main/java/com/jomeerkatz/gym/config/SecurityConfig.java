@@ -1,27 +1,110 @@
 package com.jomeerkatz.gym.config;
 
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.header.HeaderWriter;
+import org.springframework.security.web.header.HeaderWriterFilter;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import org.springframework.web.servlet.HandlerExceptionResolver;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
 
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
+
+    // Public reads get their own, minimal chain that is checked first: no bearer token resolution or decoding (a token
+    // sent along is simply ignored - also an expired one, which used to turn a public read into a 401), no security
+    // context, no anonymous user, no request cache. Only CORS and the response headers are left.
+    // Instead of spring security's "no-store" these responses get cache headers a browser or CDN can use (see
+    // publicCacheHeaders).
+    @Bean
+    @Order(1)
+    public SecurityFilterChain publicReadFilterChain(
+            HttpSecurity http,
+            @Value("${app.http.cache.gyms-max-age:10s}") Duration gymsMaxAge,
+            @Value("${app.http.cache.photos-max-age:365d}") Duration photosMaxAge,
+            AdmissionControl admissionControl,
+            @Qualifier("handlerExceptionResolver") ObjectProvider<HandlerExceptionResolver> exceptionResolver
+    ) throws Exception {
+        PathPatternRequestMatcher.Builder paths = PathPatternRequestMatcher.withDefaults();
+        RequestMatcher photos = new OrRequestMatcher(
+                paths.matcher(HttpMethod.GET, "/api/photos/**"),
+                paths.matcher(HttpMethod.HEAD, "/api/photos/**"));
+        http
+                .securityMatcher(new OrRequestMatcher(
+                        paths.matcher(HttpMethod.GET, "/api/gyms/**"),
+                        paths.matcher(HttpMethod.HEAD, "/api/gyms/**"),
+                        photos))
+                // no authorizeHttpRequests: without an authorization filter everything that matches is allowed
+                .cors(cors -> cors.configurationSource(corsConfigurationSource()))
+                .csrf(csrf -> csrf.disable())
+                .anonymous(anonymous -> anonymous.disable())
+                .securityContext(securityContext -> securityContext.disable())
+                .sessionManagement(session -> session.disable())
+                .requestCache(requestCache -> requestCache.disable())
+                .servletApi(servletApi -> servletApi.disable())
+                .exceptionHandling(exceptionHandling -> exceptionHandling.disable())
+                .logout(logout -> logout.disable())
+                .headers(headers -> headers
+                        .cacheControl(cacheControl -> cacheControl.disable())
+                        .addHeaderWriter(publicCacheHeaders(photos, gymsMaxAge, photosMaxAge)));
+        // anonymous -> budget per IP
+        addAdmissionControl(http, admissionControl, exceptionResolver, HeaderWriterFilter.class);
+        return http.build();
+    }
+
+    // successful public reads may be cached by anyone. Photos never change (every upload gets a new id), gyms and
+    // reviews do - they get a short max-age so a new review shows up soon. Endpoints that set Cache-Control themselves
+    // keep theirs.
+    private static HeaderWriter publicCacheHeaders(RequestMatcher photos, Duration gymsMaxAge, Duration photosMaxAge) {
+        String gymsCacheControl = CacheControl.maxAge(gymsMaxAge).cachePublic().getHeaderValue();
+        String photosCacheControl = CacheControl.maxAge(photosMaxAge).cachePublic().immutable().getHeaderValue();
+        return (request, response) -> {
+            if (response.getStatus() == HttpServletResponse.SC_OK && !response.containsHeader(HttpHeaders.CACHE_CONTROL)) {
+                response.setHeader(HttpHeaders.CACHE_CONTROL,
+                        photos.matches(request) ? photosCacheControl : gymsCacheControl);
+            }
+        };
+    }
+
     @Bean
     // securityfilterchain gets into the spring context (gets a bean), where all request will go through
     // each filter we will create with the builder HttpSecurity (http), which has different "filter fields" which we can
     // configure.
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(
+            HttpSecurity http,
+            AdmissionControl admissionControl,
+            @Qualifier("handlerExceptionResolver") ObjectProvider<HandlerExceptionResolver> exceptionResolver
+    ) throws Exception {
         // HttpSecurity (http) is the builder object
         // where we can create the filter -> the result with .build is from type SecurityFilterChain
         http
@@ -32,6 +115,8 @@ public class SecurityConfig {
                         // also can define something. I define which HTTP requests are allowed / denied and under what
                         // conditions
                         auth
+                                // public reads normally never get here (publicReadFilterChain), the rules stay so
+                                // they are public no matter which chain handles them
                                 .requestMatchers(HttpMethod.GET, "/api/gyms/**").permitAll()
                                 // allow this path, without authentification, since we want to show images, even when
                                 // the user has no account
@@ -41,6 +126,13 @@ public class SecurityConfig {
                                 // means, browser can ask, can i really send this request. that's the meaning of OPTIONS
                                 // is like GET, DELETE etc. (method)
                                 .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
+                                // health checks and the prometheus scraper come without a token. Actuator only
+                                // listens on the internal management port (management.server.port), the public port
+                                // only has the probes
+                                .requestMatchers(HttpMethod.GET, "/actuator/health", "/actuator/prometheus").permitAll()
+                                .requestMatchers(HttpMethod.GET, "/livez", "/readyz").permitAll()
+                                // exports and other maintenance endpoints need the keycloak realm role "admin"
+                                .requestMatchers("/api/admin/**").hasRole("ADMIN")
                                 // every other request must be authenticated
                                 .anyRequest().authenticated()
                 )
@@ -72,9 +164,19 @@ public class SecurityConfig {
                 // For REST APIs using JWT → CSRF protection is unnecessary and should be disabled.
                 .csrf(csrf -> csrf.disable()) // not do for this build but think about it when in production
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()));
+        // after the token check, so writes are counted per user
+        addAdmissionControl(http, admissionControl, exceptionResolver, BearerTokenAuthenticationFilter.class);
         return http.build();
     }
 
+    private static void addAdmissionControl(HttpSecurity http, AdmissionControl admissionControl,
+                                            ObjectProvider<HandlerExceptionResolver> exceptionResolver,
+                                            Class<? extends Filter> after) {
+        if (admissionControl.isEnabled()) {
+            http.addFilterAfter(new AdmissionControlFilter(admissionControl, exceptionResolver.getObject()), after);
+        }
+    }
+
     @Bean
     public CorsConfigurationSource corsConfigurationSource() {
         CorsConfiguration configuration = new CorsConfiguration();
@@ -87,6 +189,8 @@ public class SecurityConfig {
         configuration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"));
         // allow all headers, including Authorization
         configuration.setAllowedHeaders(Arrays.asList("*"));
+        // lets the frontend see that a search was answered from the degraded-mode snapshot
+        configuration.setExposedHeaders(Arrays.asList("X-Data-Stale"));
         // allow credentials (Authorization header / cookies) to be sent
         configuration.setAllowCredentials(true);
         // cache preflight responses for 1 hour
@@ -99,6 +203,18 @@ public class SecurityConfig {
 
     @Bean
     public JwtAuthenticationConverter jwtAuthenticationConverter() {
-        return new JwtAuthenticationConverter();
+        JwtGrantedAuthoritiesConverter scopeConverter = new JwtGrantedAuthoritiesConverter();
+        JwtAuthenticationConverter converter = new JwtAuthenticationConverter();
+        // keycloak puts realm roles into realm_access.roles -> realm role "admin" becomes authority ROLE_ADMIN
+        converter.setJwtGrantedAuthoritiesConverter(jwt -> {
+            Collection<GrantedAuthority> authorities = new ArrayList<>(scopeConverter.convert(jwt));
+            Map<String, Object> realmAccess = jwt.getClaimAsMap("realm_access");
+            if (realmAccess != null && realmAccess.get("roles") instanceof Collection<?> roles) {
+                roles.forEach(role ->
+                        authorities.add(new SimpleGrantedAuthority("ROLE_" + role.toString().toUpperCase(Locale.ROOT))));
+            }
+            return authorities;
+        });
+        return converter;
     }
 }
@@ -0,0 +1,70 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.mappers.GymMapper;
+import com.jomeerkatz.gym.mappers.ReviewMapper;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+// The phases of the Server-Timing header that don't live in our own code: JWT validation (the decoder spring
+// security calls), MapStruct mapping (the generated mappers) and the start of JSON serialization.
+@Configuration
+@ConditionalOnProperty(name = "app.server-timing.enabled", havingValue = "true")
+public class ServerTimingConfig {
+
+    @Bean
+    public static BeanPostProcessor serverTimingPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                String phase = bean instanceof JwtDecoder ? RequestTiming.AUTH
+                        : bean instanceof GymMapper || bean instanceof ReviewMapper ? RequestTiming.MAPPING
+                        : null;
+                if (phase == null) {
+                    return bean;
+                }
+                // a proxy over all interfaces, the decoder is also a MeterBinder (CachingJwtDecoder)
+                ProxyFactory proxyFactory = new ProxyFactory(bean);
+                proxyFactory.setInterfaces(ClassUtils.getAllInterfaces(bean));
+                proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+                    long start = RequestTiming.start();
+                    try {
+                        return invocation.proceed();
+                    } finally {
+                        RequestTiming.record(phase, start);
+                    }
+                });
+                return proxyFactory.getProxy(bean.getClass().getClassLoader());
+            }
+        };
+    }
+
+    @ControllerAdvice
+    static class SerializationStartAdvice implements ResponseBodyAdvice<Object> {
+
+        @Override
+        public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+            return true;
+        }
+
+        @Override
+        public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                      Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                      ServerHttpRequest request, ServerHttpResponse response) {
+            RequestTiming.markSerializationStart();
+            return body;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jomeerkatz.gym.config;
+
+import com.jomeerkatz.gym.domain.SearchBranch;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Pageable;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Records every call as a timer with the tags
+//   component  interface that was called (GymService, GymRepository, ...)
+//   method     method name
+//   branch     for gym searches which query they ran: text / rating / geo / all, otherwise "none"
+//   exception  simple class name of what was thrown, "none" if nothing
+// and for every gym loaded by id how many reviews it carries (the whole list is read and written with the gym).
+// The meters are built once per tag combination, a call only looks its timer up.
+class TimedInvocationInterceptor implements MethodInterceptor {
+
+    private final String metricName;
+    private final String component;
+    private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+    private volatile MeterRegistry meterRegistry;
+    private final Map<TimerTags, Timer> timers = new ConcurrentHashMap<>();
+    private volatile DistributionSummary reviewsPerGym;
+
+    TimedInvocationInterceptor(String metricName, Class<?> component, ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        this.metricName = metricName;
+        this.component = component.getSimpleName();
+        this.meterRegistryProvider = meterRegistryProvider;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        if (method.getDeclaringClass() == Object.class) {
+            return invocation.proceed();
+        }
+
+        MeterRegistry registry = registry();
+        String exception = "none";
+        long start = System.nanoTime();
+        try {
+            Object result = invocation.proceed();
+            if (method.getName().equals("findById")) {
+                recordReviewsPerGym(registry, result);
+            }
+            return result;
+        } catch (Throwable t) {
+            exception = t.getClass().getSimpleName();
+            throw t;
+        } finally {
+            TimerTags tags = new TimerTags(method.getName(), branch(method.getName(), invocation.getArguments()),
+                    exception);
+            timers.computeIfAbsent(tags, key -> timer(registry, key))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(MeterRegistry registry, TimerTags tags) {
+        return Timer.builder(metricName)
+                .tags(Tags.of(
+                        "component", component,
+                        "method", tags.method(),
+                        "branch", tags.branch(),
+                        "exception", tags.exception()))
+                .register(registry);
+    }
+
+    private void recordReviewsPerGym(MeterRegistry registry, Object result) {
+        if (result instanceof Optional<?> optional && optional.orElse(null) instanceof Gym gym
+                && gym.getReviews() != null) {
+            DistributionSummary summary = reviewsPerGym;
+            if (summary == null) {
+                // registering again returns the same meter, a race costs nothing
+                summary = DistributionSummary.builder("gym.reviews.per.gym")
+                        .baseUnit("reviews")
+                        .register(registry);
+                reviewsPerGym = summary;
+            }
+            summary.record(gym.getReviews().size());
+        }
+    }
+
+    // GymService.searchGyms decides the branch from its arguments, the repository has one query method per branch
+    private static String branch(String method, Object[] args) {
+        return switch (method) {
+            case "searchGyms" -> SearchBranch.of((String) args[0], (Float) args[1], (Float) args[2], (Float) args[3],
+                    (Float) args[4]).tag();
+            case "findByAverageRatingGreaterThanEqual" -> SearchBranch.RATING.tag();
+            case "findByQueryAndMinRating" -> SearchBranch.TEXT.tag();
+            case "findByLocationNear" -> SearchBranch.GEO.tag();
+            case "findAll" -> args.length == 1 && args[0] instanceof Pageable
+                    ? SearchBranch.ALL.tag() : "none";
+            default -> "none";
+        };
+    }
+
+    private MeterRegistry registry() {
+        // the registry bean only exists once the context is up, resolve it on the first call
+        MeterRegistry registry = meterRegistry;
+        if (registry == null) {
+            registry = meterRegistryProvider.getObject();
+            meterRegistry = registry;
+        }
+        return registry;
+    }
+
+    private record TimerTags(String method, String branch, String exception) {
+    }
+}
@@ -0,0 +1,65 @@
+package com.jomeerkatz.gym.controllers;
+
+import com.jomeerkatz.gym.domain.GymExportResult;
+import com.jomeerkatz.gym.domain.SlowQuery;
+import com.jomeerkatz.gym.services.GymExportService;
+import com.jomeerkatz.gym.services.ReviewService;
+import com.jomeerkatz.gym.services.impl.SlowQueryLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+// only reachable with the ADMIN realm role (see SecurityConfig)
+@RestController
+@RequestMapping(path = "/api/admin")
+@RequiredArgsConstructor
+public class AdminController {
+    private final GymExportService gymExportService;
+    private final ReviewService reviewService;
+    private final SlowQueryLog slowQueryLog;
+
+    // all gyms incl. reviews as gzip compressed NDJSON, streamed while the index is being read
+    @GetMapping(path = "/export/gyms")
+    public ResponseEntity<StreamingResponseBody> exportGyms() {
+        String filename = "gyms-" + LocalDate.now() + ".ndjson.gz";
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(gymExportService::exportGyms);
+    }
+
+    // same export, written to a file on the server (app.export.location)
+    @PostMapping(path = "/export/gyms")
+    public GymExportResult exportGymsToFile() {
+        return gymExportService.exportGymsToFile();
+    }
+
+    // sampled elasticsearch requests slower than app.elasticsearch.slow-log.threshold, newest first
+    @GetMapping(path = "/elasticsearch/slow-queries")
+    public List<SlowQuery> slowQueries() {
+        return slowQueryLog.recent();
+    }
+
+    // refills the user review index (/api/users/me/reviews, duplicate review check) from the reviews in the gyms
+    @PostMapping(path = "/user-reviews/rebuild")
+    public Map<String, Long> rebuildUserReviews() {
+        return Map.of("indexed", reviewService.rebuildUserReviews());
+    }
+
+    // sets totalReviews of every gym from its reviews (read by the degraded-mode snapshot), once after upgrading
+    @PostMapping(path = "/gyms/review-counts/rebuild")
+    public Map<String, Long> recountReviews() {
+        return Map.of("updated", reviewService.recountReviews());
+    }
+}
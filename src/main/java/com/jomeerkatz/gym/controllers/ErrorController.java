@@ -2,24 +2,40 @@ package com.jomeerkatz.gym.controllers;
 
 import com.jomeerkatz.gym.domain.dtos.ErrorDto;
 import com.jomeerkatz.gym.exceptions.BaseException;
+import com.jomeerkatz.gym.exceptions.GeoLocationNotFoundException;
 import com.jomeerkatz.gym.exceptions.GymNotFoundException;
+import com.jomeerkatz.gym.exceptions.InvalidPhotoException;
+import com.jomeerkatz.gym.exceptions.OperationTimeoutException;
+import com.jomeerkatz.gym.exceptions.PhotoTooLargeException;
 import com.jomeerkatz.gym.exceptions.ReviewNotAllowedException;
+import com.jomeerkatz.gym.exceptions.ServiceOverloadedException;
 import com.jomeerkatz.gym.exceptions.StorageException;
+import com.jomeerkatz.gym.exceptions.TooManyRequestsException;
+import com.jomeerkatz.gym.exceptions.UploadLimitExceededException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.MessageSourceResolvable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.method.annotation.HandlerMethodValidationException;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
 import java.util.stream.Collectors;
 
 @RestController
 @ControllerAdvice
 @Slf4j
+@RequiredArgsConstructor
 public class ErrorController {
 
+    private final MeterRegistry meterRegistry;
+
     @ExceptionHandler(ReviewNotAllowedException.class)
     public ResponseEntity<ErrorDto> handleReviewNotAllowedException(ReviewNotAllowedException ex) {
         log.error("caught Review Not Allowed Exception", ex);
@@ -29,6 +45,7 @@ public class ErrorController {
                 .message("the specific review cannot be created or updated")
                 .build();
 
+        countError(ex, HttpStatus.BAD_REQUEST);
         return new ResponseEntity<>(errorDto, HttpStatus.BAD_REQUEST);
     }
 
@@ -41,6 +58,7 @@ public class ErrorController {
                 .message("the specific gym wasn't found!")
                 .build();
 
+        countError(ex, HttpStatus.NOT_FOUND);
         return new ResponseEntity<>(errorDto, HttpStatus.NOT_FOUND);
     }
 
@@ -60,9 +78,40 @@ public class ErrorController {
                  .status(HttpStatus.BAD_REQUEST.value())
                  .build();
 
+         countError(ex, HttpStatus.BAD_REQUEST);
          return new ResponseEntity<ErrorDto>(errorDto, HttpStatus.BAD_REQUEST);
      }
 
+    // constraints directly on controller method parameters, e.g. @Size on a @RequestParam list
+    @ExceptionHandler(HandlerMethodValidationException.class)
+    public ResponseEntity<ErrorDto> handleHandlerMethodValidationException(HandlerMethodValidationException ex) {
+        log.warn("caught HandlerMethodValidationException: {}", ex.getMessage());
+
+        String errorMessage = ex.getAllErrors()
+                .stream()
+                .map(MessageSourceResolvable::getDefaultMessage)
+                .collect(Collectors.joining(", "));
+
+        ErrorDto errorDto = ErrorDto.builder()
+                .message(errorMessage)
+                .status(HttpStatus.BAD_REQUEST.value())
+                .build();
+
+        countError(ex, HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(errorDto, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(GeoLocationNotFoundException.class)
+    public ResponseEntity<ErrorDto> handleGeoLocationNotFoundException(GeoLocationNotFoundException ex) {
+        log.warn("caught GeoLocationNotFoundException: {}", ex.getMessage());
+        ErrorDto errorDto = ErrorDto.builder()
+                .status(HttpStatus.BAD_REQUEST.value())
+                .message("the address could not be located, please check city and postal code")
+                .build();
+        countError(ex, HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(errorDto, HttpStatus.BAD_REQUEST);
+    }
+
     @ExceptionHandler(StorageException.class)
     public ResponseEntity<ErrorDto> handleStorageException(StorageException ex) {
         log.error("caught storageexception", ex);
@@ -70,9 +119,74 @@ public class ErrorController {
                 .status(HttpStatus.INTERNAL_SERVER_ERROR.value())
                 .message("unable to save or retrieve resources at this time")
                 .build();
+        countError(ex, HttpStatus.INTERNAL_SERVER_ERROR);
         return new ResponseEntity<>(errorDto, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler(InvalidPhotoException.class)
+    public ResponseEntity<ErrorDto> handleInvalidPhotoException(InvalidPhotoException ex) {
+        log.warn("caught InvalidPhotoException: {}", ex.getMessage());
+        ErrorDto errorDto = ErrorDto.builder()
+                .status(HttpStatus.BAD_REQUEST.value())
+                .message(ex.getMessage())
+                .build();
+        countError(ex, HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(errorDto, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler({PhotoTooLargeException.class, MaxUploadSizeExceededException.class})
+    public ResponseEntity<ErrorDto> handlePhotoTooLargeException(Exception ex) {
+        log.warn("caught too large upload: {}", ex.getMessage());
+        ErrorDto errorDto = ErrorDto.builder()
+                .status(HttpStatus.CONTENT_TOO_LARGE.value())
+                .message("the uploaded file is too large")
+                .build();
+        countError(ex, HttpStatus.CONTENT_TOO_LARGE);
+        return new ResponseEntity<>(errorDto, HttpStatus.CONTENT_TOO_LARGE);
+    }
+
+    @ExceptionHandler(UploadLimitExceededException.class)
+    public ResponseEntity<ErrorDto> handleUploadLimitExceededException(UploadLimitExceededException ex) {
+        log.warn("caught UploadLimitExceededException: {}", ex.getMessage());
+        ErrorDto errorDto = ErrorDto.builder()
+                .status(HttpStatus.SERVICE_UNAVAILABLE.value())
+                .message("too many uploads at the moment, please try again")
+                .build();
+        // tell the client when it makes sense to retry
+        countError(ex, HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(errorDto);
+    }
+
+    // a full bulkhead or an operation past its timeout: answer fast instead of piling up more waiting requests
+    @ExceptionHandler({ServiceOverloadedException.class, OperationTimeoutException.class})
+    public ResponseEntity<ErrorDto> handleServiceOverloadedException(BaseException ex) {
+        log.warn("caught {}: {}", ex.getClass().getSimpleName(), ex.getMessage());
+        ErrorDto errorDto = ErrorDto.builder()
+                .status(HttpStatus.SERVICE_UNAVAILABLE.value())
+                .message("the service is busy at the moment, please try again")
+                .build();
+        countError(ex, HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(errorDto);
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<ErrorDto> handleTooManyRequestsException(TooManyRequestsException ex) {
+        // a flooding client would flood the log too, they are counted in gym.admission.rejected
+        log.debug("caught TooManyRequestsException: {}", ex.getMessage());
+        ErrorDto errorDto = ErrorDto.builder()
+                .status(HttpStatus.TOO_MANY_REQUESTS.value())
+                .message("too many requests, please slow down")
+                .build();
+        countError(ex, HttpStatus.TOO_MANY_REQUESTS);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(errorDto);
+    }
+
     @ExceptionHandler(BaseException.class)
     public ResponseEntity<ErrorDto> handleBaseException(Exception ex) {
         log.error("caught base exception", ex);
@@ -82,6 +196,7 @@ public class ErrorController {
                 .message("an unexpected error occurred")
                 .build();
 
+        countError(ex, HttpStatus.INTERNAL_SERVER_ERROR);
         return new ResponseEntity<>(errorDto, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
@@ -94,6 +209,14 @@ public class ErrorController {
                 .message("an unexpected error occurred")
                 .build();
 
+        countError(ex, HttpStatus.INTERNAL_SERVER_ERROR);
         return new ResponseEntity<>(errorDto, HttpStatus.INTERNAL_SERVER_ERROR);
     }
+
+    // gym.errors{exception, status}: which errors we answer and how often
+    private void countError(Exception ex, HttpStatus status) {
+        meterRegistry.counter("gym.errors",
+                "exception", ex.getClass().getSimpleName(),
+                "status", String.valueOf(status.value())).increment();
+    }
 }
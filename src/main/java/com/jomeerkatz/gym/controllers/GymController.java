@@ -1,29 +1,52 @@
 package com.jomeerkatz.gym.controllers;
 
 import co.elastic.clients.elasticsearch.nodes.Http;
+import com.jomeerkatz.gym.config.AdmissionControl;
+import com.jomeerkatz.gym.domain.GymCreateResult;
 import com.jomeerkatz.gym.domain.GymCreateUpdateRequest;
+import com.jomeerkatz.gym.domain.dtos.GymBatchCreateRequestDto;
+import com.jomeerkatz.gym.domain.dtos.GymCreateResultDto;
 import com.jomeerkatz.gym.domain.dtos.GymCreateUpdateRequestDto;
 import com.jomeerkatz.gym.domain.dtos.GymDto;
 import com.jomeerkatz.gym.domain.dtos.GymSummaryDto;
 import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.exceptions.OperationTimeoutException;
 import com.jomeerkatz.gym.mappers.GymMapper;
 import com.jomeerkatz.gym.services.GymService;
+import com.jomeerkatz.gym.services.GymStreamService;
+import com.jomeerkatz.gym.services.impl.GymChangeStream;
+import com.jomeerkatz.gym.services.impl.GymSummarySnapshot;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
+import java.util.List;
 import java.util.Optional;
 
 @RestController
 @RequestMapping(path = "/api/gyms")
 @RequiredArgsConstructor // only works with final variables
+@Slf4j
 public class GymController {
     private final GymService gymService;
     private final GymMapper gymMapper;
+    private final GymStreamService gymStreamService;
+    private final ObjectProvider<GymSummarySnapshot> gymSummarySnapshot;
+    private final GymChangeStream gymChangeStream;
 
     @PostMapping
     public ResponseEntity<GymDto> createGym(@Valid @RequestBody GymCreateUpdateRequestDto gymCreateUpdateRequestDto) {
@@ -33,8 +56,20 @@ public class GymController {
         return ResponseEntity.ok(savedGymDto);
     }
 
+    // bulk onboarding, geocodes all addresses in one batch and indexes the gyms with one bulk request. Each gym gets its
+    // own result entry (by index), so one address that can't be located doesn't fail the rest of the import.
+    @PostMapping("/batch")
+    public ResponseEntity<List<GymCreateResultDto>> createGyms(@Valid @RequestBody GymBatchCreateRequestDto batchRequestDto) {
+        List<GymCreateUpdateRequest> requests = batchRequestDto.getGyms().stream()
+                .map(gymMapper::toGymCreateUpdateRequest)
+                .toList();
+        List<GymCreateResult> results = gymService.createGyms(requests);
+        return ResponseEntity.ok(results.stream().map(gymMapper::toCreateResultDto).toList());
+    }
+
+    // if elasticsearch is down or times out the answer comes from the local snapshot (see staleSnapshot)
     @GetMapping
-    public Page<GymSummaryDto> searchGyms(
+    public ResponseEntity<Page<GymSummaryDto>> searchGyms(
             @RequestParam(required = false) String query, // can be null which is OK!, that's why param is optional!
             @RequestParam(required = false) Float minRating,
             @RequestParam(required = false) Float latitude,
@@ -44,15 +79,98 @@ public class GymController {
             // implement it right in frontend
             @RequestParam(defaultValue = "20") int size
     ) {
-        Page<Gym> searchResult = gymService.searchGyms(query, minRating, latitude, longitude, radius, PageRequest.of(page - 1, size));
-        return searchResult.map(gymMapper::toSummaryDto);
+        PageRequest pageRequest = PageRequest.of(page - 1, size);
+        try {
+            Page<Gym> searchResult = gymService.searchGyms(query, minRating, latitude, longitude, radius, pageRequest);
+            return ResponseEntity.ok(searchResult.map(gymMapper::toSummaryDto));
+        } catch (OperationTimeoutException | DataAccessResourceFailureException e) {
+            GymSummarySnapshot snapshot = staleSnapshot(e);
+            Page<Gym> searchResult = snapshot.searchGyms(query, minRating, latitude, longitude, radius, pageRequest);
+            return staleResponse(snapshot).body(searchResult.map(gymMapper::snapshotToSummaryDto));
+        }
+    }
+
+    // Streams every matching gym instead of one page: as NDJSON (one json object per line) or as server-sent events.
+    // Hits are written while elasticsearch is still delivering the next batches, and the next batch is only fetched
+    // when the client has read the previous ones - so time to first byte and memory don't grow with the result size.
+    @GetMapping(path = "/stream", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<GymSummaryDto> streamGyms(
+            @RequestParam(required = false) String query,
+            @RequestParam(required = false) Float minRating,
+            @RequestParam(required = false) Float latitude,
+            @RequestParam(required = false) Float longitude,
+            @RequestParam(required = false) Float radius
+    ) {
+        return gymStreamService.streamGyms(query, minRating, latitude, longitude, radius)
+                .map(gymMapper::toSummaryDto);
+    }
+
+    // Server-sent events instead of polling (see GymChangeStream): changes of the gyms in an area, radius in meters like
+    // the search. Cache-Control so the public cache headers of the read chain don't end up on a stream
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> areaEvents(@RequestParam float latitude,
+                                                 @RequestParam float longitude,
+                                                 @RequestParam @Positive float radius,
+                                                 HttpServletRequest request) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(gymChangeStream.subscribeToArea(latitude, longitude, radius,
+                        AdmissionControl.clientKey(request)));
+    }
+
+    // the gym itself (rating, photos, ...) and its reviews. Only for gyms that exist, a subscription holds a
+    // connection and a thread
+    @GetMapping(path = "/{gym_id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> gymEvents(@PathVariable("gym_id") String gymId, HttpServletRequest request) {
+        if (gymService.getGymSummaries(List.of(gymId)).getFirst().isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(gymChangeStream.subscribeToGym(gymId, AdmissionControl.clientKey(request)));
+    }
+
+    // GET /api/gyms?ids=a,b,c - several gyms (favourites, comparison, recently viewed) in one request instead of one
+    // request per gym. The list has the order of the ids, a gym that doesn't exist (anymore) is null.
+    @GetMapping(params = "ids")
+    public List<GymSummaryDto> getGyms(@RequestParam @Size(min = 1, max = 100) List<String> ids) {
+        return gymService.getGymSummaries(ids).stream()
+                .map(gym -> gym.map(gymMapper::toSummaryDto).orElse(null))
+                .toList();
     }
 
+    // from the snapshot only summary fields, no reviews. A gym that is newer than the snapshot is a 503, not a 404
     @GetMapping("/{gym_id}")
     public ResponseEntity<GymDto> getGym(@PathVariable("gym_id") String gymId) {
-        return gymService.getGym(gymId)
-                .map(gym -> ResponseEntity.ok(gymMapper.toGymDto(gym)))
-                .orElseGet(() -> ResponseEntity.notFound().build());
+        try {
+            return gymService.getGym(gymId)
+                    .map(gym -> ResponseEntity.ok(gymMapper.toGymDto(gym)))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (OperationTimeoutException | DataAccessResourceFailureException e) {
+            GymSummarySnapshot snapshot = staleSnapshot(e);
+            Gym gym = snapshot.getGym(gymId).orElseThrow(() -> e);
+            return staleResponse(snapshot).body(gymMapper.snapshotToGymDto(gym));
+        }
+    }
+
+    // elasticsearch is down or too slow -> the local snapshot, if we have one. Otherwise the original error (503)
+    private GymSummarySnapshot staleSnapshot(RuntimeException cause) {
+        GymSummarySnapshot snapshot = gymSummarySnapshot.getIfAvailable();
+        if (snapshot == null || !snapshot.isAvailable()) {
+            throw cause;
+        }
+        log.warn("elasticsearch unavailable ({}), answering from the snapshot of {}", cause.getMessage(),
+                snapshot.createdAt());
+        return snapshot;
+    }
+
+    // X-Data-Stale marks the answer as old data, Last-Modified says how old. Never cached, once elasticsearch is back
+    // the next request gets fresh data
+    private static ResponseEntity.BodyBuilder staleResponse(GymSummarySnapshot snapshot) {
+        return ResponseEntity.ok()
+                .header("X-Data-Stale", "true")
+                .lastModified(snapshot.createdAt())
+                .cacheControl(CacheControl.noStore());
     }
 
     @DeleteMapping("/{gym_id}")
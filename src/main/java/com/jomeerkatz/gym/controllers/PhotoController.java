@@ -1,6 +1,7 @@
 package com.jomeerkatz.gym.controllers;
 
 import com.jomeerkatz.gym.domain.dtos.PhotoDto;
+import com.jomeerkatz.gym.domain.dtos.PhotoUploadResultDto;
 import com.jomeerkatz.gym.mappers.PhotoMapper;
 import com.jomeerkatz.gym.services.PhotoService;
 import lombok.RequiredArgsConstructor;
@@ -9,6 +10,9 @@ import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.util.List;
+
 @RestController
 @RequiredArgsConstructor
 // we do not need constructos since we use this Annotation.
@@ -26,6 +30,27 @@ public class PhotoController {
         return photoMapper.toDto(photoService.uploadFile(file));
     }
 
+    // Several photos in one request (multipart parts all named "files"), e.g. all photos of a review.
+    // Saves a round trip + a pass through the security filter chain per photo. Each file gets its own result
+    // entry, so one broken file doesn't fail the rest of the batch.
+    @PostMapping(path = "/batch")
+    List<PhotoUploadResultDto> uploadPhotos(@RequestParam("files") List<MultipartFile> files) {
+        return photoService.uploadFiles(files).stream().map(photoMapper::toUploadResultDto).toList();
+    }
+
+    // Streaming alternative: the image is the raw request body (Content-Type: image/...), no multipart envelope.
+    // Spring hands us the servlet InputStream, so nothing gets buffered in memory or in a temp file before we
+    // write it to its final place.
+    @PostMapping(consumes = {
+            MediaType.IMAGE_JPEG_VALUE,
+            MediaType.IMAGE_PNG_VALUE,
+            MediaType.IMAGE_GIF_VALUE,
+            "image/webp"
+    })
+    PhotoDto uploadPhotoStream(InputStream body) {
+        return photoMapper.toDto(photoService.uploadStream(body));
+    }
+
     @GetMapping(path = "/{id:.+}")
     // Endpoint: Retrieves a stored photo by its ID.
     // Note: {id:.+} allows dots in the filename (e.g., "image.jpg").
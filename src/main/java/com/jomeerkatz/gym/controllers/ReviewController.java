@@ -7,6 +7,7 @@ import com.jomeerkatz.gym.domain.entities.Review;
 import com.jomeerkatz.gym.domain.entities.User;
 import com.jomeerkatz.gym.mappers.ReviewMapper;
 import com.jomeerkatz.gym.services.ReviewService;
+import com.jomeerkatz.gym.services.impl.ReviewWriteQueue;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -19,6 +20,8 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Optional;
+
 @RestController
 @RequestMapping(path = "/api/gyms/{gym_id}/reviews")
 @RequiredArgsConstructor
@@ -26,6 +29,8 @@ public class ReviewController {
 
     private final ReviewMapper reviewMapper;
     private final ReviewService reviewService;
+    // only there when app.reviews.async.enabled=true
+    private final Optional<ReviewWriteQueue> reviewWriteQueue;
 
     @PostMapping
     public ResponseEntity<ReviewDto> createReview(
@@ -37,6 +42,12 @@ public class ReviewController {
 
         User user = jwtToUser(jwt);
 
+        if (reviewWriteQueue.isPresent()) {
+            // async mode: the review is safely queued on disk, it shows up at the gym shortly
+            Review acceptedReview = reviewWriteQueue.get().submit(user, gym_id, reviewUpdateCreate);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(reviewMapper.toDto(acceptedReview));
+        }
+
         Review createdReview = reviewService.createReview(user, gym_id, reviewUpdateCreate);
 
         return ResponseEntity.ok(reviewMapper.toDto(createdReview));
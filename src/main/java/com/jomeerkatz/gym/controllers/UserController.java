@@ -0,0 +1,37 @@
+package com.jomeerkatz.gym.controllers;
+
+import com.jomeerkatz.gym.domain.dtos.UserReviewDto;
+import com.jomeerkatz.gym.mappers.ReviewMapper;
+import com.jomeerkatz.gym.services.ReviewService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping(path = "/api/users")
+@RequiredArgsConstructor
+public class UserController {
+
+    private final ReviewService reviewService;
+    private final ReviewMapper reviewMapper;
+
+    // reviews of the logged in user over all gyms, sortable by datePosted or rating
+    @GetMapping(path = "/me/reviews")
+    public Page<UserReviewDto> listMyReviews(
+            @AuthenticationPrincipal Jwt jwt,
+            @PageableDefault(
+                    size = 20,
+                    page = 0,
+                    sort = "datePosted",
+                    direction = Sort.Direction.DESC
+            ) Pageable pageable) {
+        return reviewService.listUserReviews(jwt.getSubject(), pageable).map(reviewMapper::toDto);
+    }
+}
@@ -0,0 +1,22 @@
+package com.jomeerkatz.gym.domain;
+
+import com.jomeerkatz.gym.domain.entities.Gym;
+
+// Published (spring application event) after a gym was written to elasticsearch: created, updated, deleted, or one
+// of its reviews changed (GymWriteCoalescer). Listeners run on the writing thread (the coalescer publishes once it
+// has handed its lane over), they must be quick and must not throw - the write itself already happened.
+// gym is the state that was saved, null if the gym was deleted. It's the instance the writer used, don't modify it.
+public record GymChangedEvent(String gymId, Gym gym) {
+
+    public static GymChangedEvent saved(Gym gym) {
+        return new GymChangedEvent(gym.getId(), gym);
+    }
+
+    public static GymChangedEvent deleted(String gymId) {
+        return new GymChangedEvent(gymId, null);
+    }
+
+    public boolean isDeleted() {
+        return gym == null;
+    }
+}
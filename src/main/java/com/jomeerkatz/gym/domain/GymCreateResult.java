@@ -0,0 +1,18 @@
+package com.jomeerkatz.gym.domain;
+
+import com.jomeerkatz.gym.domain.entities.Gym;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// outcome of one gym of a bulk import -> either gym or error is set
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GymCreateResult {
+    private int index;
+    private Gym gym;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.jomeerkatz.gym.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GymExportResult {
+    private String file;
+    private long gyms;
+    private long sizeBytes;
+    private Instant startedAt;
+    private Instant finishedAt;
+}
@@ -0,0 +1,25 @@
+package com.jomeerkatz.gym.domain;
+
+import com.jomeerkatz.gym.domain.entities.User;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// a review that was accepted (async mode) but is not written to elasticsearch yet, one line in the review write log
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PendingReview {
+    private String id;
+    private String gymId;
+    private User author;
+    private String content;
+    private Integer rating;
+    private List<String> photoIds;
+    private LocalDateTime submittedAt;
+}
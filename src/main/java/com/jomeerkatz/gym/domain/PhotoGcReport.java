@@ -0,0 +1,30 @@
+package com.jomeerkatz.gym.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PhotoGcReport {
+    private Instant startedAt;
+    private Instant finishedAt;
+    private boolean dryRun;
+    private long referencedPhotos;
+    private long scannedFiles;
+    // unreferenced, but still younger than the grace period -> kept for now
+    private long keptWithinGracePeriod;
+    private long orphanedFiles;
+    private long deletedFiles;
+    private long orphanedBytes;
+    // first few orphan names, so a dry run shows what would be deleted
+    @Builder.Default
+    private List<String> sampleOrphans = new ArrayList<>();
+}
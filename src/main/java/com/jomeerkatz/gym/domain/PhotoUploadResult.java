@@ -0,0 +1,19 @@
+package com.jomeerkatz.gym.domain;
+
+import com.jomeerkatz.gym.domain.entities.Photo;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// outcome of one file of a batch upload -> either photo or error is set
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PhotoUploadResult {
+    private int index;
+    private String originalFilename;
+    private Photo photo;
+    private String error;
+}
@@ -0,0 +1,14 @@
+package com.jomeerkatz.gym.domain;
+
+import com.jomeerkatz.gym.domain.entities.Review;
+
+// Published by ReviewServiceImpl once a review write is saved. The new rating of the gym comes with the
+// GymChangedEvent of the same write.
+public record ReviewChangedEvent(String gymId, Review review, Type type) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+}
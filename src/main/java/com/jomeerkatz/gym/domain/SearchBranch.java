@@ -0,0 +1,29 @@
+package com.jomeerkatz.gym.domain;
+
+import java.util.Locale;
+
+// Which query a gym search ends up in. Decided in one place so the search itself and the metrics (tag "branch")
+// can't disagree.
+public enum SearchBranch {
+    RATING,
+    TEXT,
+    GEO,
+    ALL;
+
+    public static SearchBranch of(String query, Float minRating, Float latitude, Float longitude, Float radius) {
+        if (null != minRating && (null == query || query.isEmpty())) {
+            return RATING;
+        }
+        if (null != query && !query.trim().isEmpty()) {
+            return TEXT;
+        }
+        if (null != latitude && null != longitude && null != radius) {
+            return GEO;
+        }
+        return ALL;
+    }
+
+    public String tag() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,31 @@
+package com.jomeerkatz.gym.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// one elasticsearch request that took longer than app.elasticsearch.slow-log.threshold
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SlowQuery {
+    private Instant timestamp;
+    // elasticsearch api, e.g. "search", "get", "index"
+    private String endpoint;
+    private String method;
+    private String path;
+    private int status;
+    // wall clock time in our client vs. what elasticsearch reports it spent ("took", searches only)
+    private long durationMillis;
+    private Long tookMillis;
+    private Long totalHits;
+    private Integer returnedHits;
+    private long responseBytes;
+    // the request body as sent, cut off after app.elasticsearch.slow-log.max-query-length characters. Searches and
+    // counts only, null for writes (their body is the document)
+    private String query;
+}
@@ -0,0 +1,19 @@
+package com.jomeerkatz.gym.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoredFile {
+    // name inside the storage location, this is also the photo id / url
+    private String filename;
+    private long sizeBytes;
+    private Instant lastModified;
+}
@@ -0,0 +1,20 @@
+package com.jomeerkatz.gym.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// result of storing an uploaded image: where it ended up plus what we learned while streaming it to disk
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoredImage {
+    private String filename;
+    private long sizeBytes;
+    private String sha256;
+    private String mimeType;
+    private int width;
+    private int height;
+}
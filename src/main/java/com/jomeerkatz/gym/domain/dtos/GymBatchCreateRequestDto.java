@@ -0,0 +1,21 @@
+package com.jomeerkatz.gym.domain.dtos;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GymBatchCreateRequestDto {
+    @NotEmpty(message = "❌ at least one gym has to be there!")
+    @Size(max = 5000, message = "❌ at most 5000 gyms per request!")
+    private List<@Valid GymCreateUpdateRequestDto> gyms;
+}
@@ -0,0 +1,16 @@
+package com.jomeerkatz.gym.domain.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GymCreateResultDto {
+    private int index;
+    private GymSummaryDto gym;
+    private String error;
+}
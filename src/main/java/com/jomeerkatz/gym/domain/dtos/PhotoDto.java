@@ -13,4 +13,9 @@ import java.time.LocalDateTime;
 public class PhotoDto {
     private String url;
     private LocalDateTime uploadDate;
+    private Integer width;
+    private Integer height;
+    private Long sizeBytes;
+    private String mimeType;
+    private String placeholder;
 }
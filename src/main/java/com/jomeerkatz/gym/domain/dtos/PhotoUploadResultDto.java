@@ -0,0 +1,17 @@
+package com.jomeerkatz.gym.domain.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PhotoUploadResultDto {
+    private int index;
+    private String originalFilename;
+    private PhotoDto photo;
+    private String error;
+}
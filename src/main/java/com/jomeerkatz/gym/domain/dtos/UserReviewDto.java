@@ -0,0 +1,17 @@
+package com.jomeerkatz.gym.domain.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserReviewDto {
+
+    private String gymId;
+
+    private ReviewDto review;
+}
@@ -10,6 +10,7 @@ import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
 import org.springframework.data.elasticsearch.annotations.GeoPointField;
 import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.SeqNoPrimaryTerm;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -60,4 +61,8 @@ public class Gym {
     @Field(type = FieldType.Nested)
     private User createdBy;
 
+    // _seq_no and _primary_term of the version that was read, not part of the document. Spring data saves an entity
+    // that has them with if_seq_no/if_primary_term, so the save fails if someone else wrote the gym in between
+    private SeqNoPrimaryTerm seqNoPrimaryTerm;
+
 }
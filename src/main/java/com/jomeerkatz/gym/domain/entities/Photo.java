@@ -21,4 +21,21 @@ public class Photo {
 
     @Field(type = FieldType.Date, format = DateFormat.date_hour_minute_second)
     private LocalDateTime uploadDate;
+
+    // image metadata, lets the frontend reserve the right space before the image is loaded
+    @Field(type = FieldType.Integer)
+    private Integer width;
+
+    @Field(type = FieldType.Integer)
+    private Integer height;
+
+    @Field(type = FieldType.Long)
+    private Long sizeBytes;
+
+    @Field(type = FieldType.Keyword)
+    private String mimeType;
+
+    // low quality image placeholder (tiny base64 data uri), shown until the real image is lazy-loaded
+    @Field(type = FieldType.Keyword, index = false, docValues = false)
+    private String placeholder;
 }
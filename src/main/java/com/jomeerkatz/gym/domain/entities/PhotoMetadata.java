@@ -0,0 +1,49 @@
+package com.jomeerkatz.gym.domain.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.DateFormat;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+
+import java.time.LocalDateTime;
+
+// Everything we learned about a photo at upload time. Gyms and reviews only send photo ids (urls) when they get
+// created, so we keep the metadata in its own index and copy it into the embedded Photo when the photo is attached.
+@Document(indexName = "photos")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PhotoMetadata {
+
+    // the url (stored file name) is the photo id
+    @Id
+    private String url;
+
+    @Field(type = FieldType.Date, format = DateFormat.date_hour_minute_second)
+    private LocalDateTime uploadDate;
+
+    @Field(type = FieldType.Integer)
+    private Integer width;
+
+    @Field(type = FieldType.Integer)
+    private Integer height;
+
+    @Field(type = FieldType.Long)
+    private Long sizeBytes;
+
+    @Field(type = FieldType.Keyword)
+    private String mimeType;
+
+    @Field(type = FieldType.Keyword)
+    private String sha256;
+
+    // tiny base64 data uri, only ever returned -> not indexed
+    @Field(type = FieldType.Keyword, index = false, docValues = false)
+    private String placeholder;
+}
@@ -0,0 +1,60 @@
+package com.jomeerkatz.gym.domain.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.DateFormat;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+
+import java.time.LocalDateTime;
+
+// Reviews are embedded in their gym, which makes "all reviews of user X" a scan over every gym. This index keeps a
+// copy of every review keyed by author + gym: "did X already review this gym" is a get by id, and X's reviews are
+// one term query on userId.
+@Document(indexName = "user_reviews")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserReview {
+
+    // userId:gymId, one user can only write one review per gym
+    @Id
+    private String id;
+
+    @Field(type = FieldType.Keyword)
+    private String userId;
+
+    @Field(type = FieldType.Keyword)
+    private String gymId;
+
+    // copied out of the review so we can sort on them
+    @Field(type = FieldType.Date, format = DateFormat.date_hour_minute_second)
+    private LocalDateTime datePosted;
+
+    @Field(type = FieldType.Integer)
+    private Integer rating;
+
+    // only ever returned, never searched -> stored but not indexed
+    @Field(type = FieldType.Object, enabled = false)
+    private Review review;
+
+    public static String id(String userId, String gymId) {
+        return userId + ":" + gymId;
+    }
+
+    public static UserReview of(String gymId, Review review) {
+        return UserReview.builder()
+                .id(id(review.getWrittenBy().getId(), gymId))
+                .userId(review.getWrittenBy().getId())
+                .gymId(gymId)
+                .datePosted(review.getDatePosted())
+                .rating(review.getRating())
+                .review(review)
+                .build();
+    }
+}
@@ -0,0 +1,19 @@
+package com.jomeerkatz.gym.exceptions;
+
+public class GeoLocationNotFoundException extends BaseException {
+    public GeoLocationNotFoundException(String message) {
+        super(message);
+    }
+
+    public GeoLocationNotFoundException() {
+        super();
+    }
+
+    public GeoLocationNotFoundException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public GeoLocationNotFoundException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,18 @@
+package com.jomeerkatz.gym.exceptions;
+
+public class InvalidPhotoException extends BaseException {
+    public InvalidPhotoException(String message) {
+        super(message);
+    }
+
+    public InvalidPhotoException() {
+    }
+
+    public InvalidPhotoException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public InvalidPhotoException(Throwable cause) {
+        super(cause);
+    }
+}
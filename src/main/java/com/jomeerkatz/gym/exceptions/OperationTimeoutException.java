@@ -0,0 +1,19 @@
+package com.jomeerkatz.gym.exceptions;
+
+// an operation ran past its timeout (see Bulkheads), the elasticsearch call was aborted
+public class OperationTimeoutException extends BaseException {
+    public OperationTimeoutException(String message) {
+        super(message);
+    }
+
+    public OperationTimeoutException() {
+    }
+
+    public OperationTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OperationTimeoutException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,19 @@
+package com.jomeerkatz.gym.exceptions;
+
+// a bulkhead (see Bulkheads) is full, the request is rejected instead of queueing behind the others
+public class ServiceOverloadedException extends BaseException {
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+
+    public ServiceOverloadedException() {
+    }
+
+    public ServiceOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ServiceOverloadedException(Throwable cause) {
+        super(cause);
+    }
+}
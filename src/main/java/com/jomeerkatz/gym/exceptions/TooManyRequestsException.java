@@ -0,0 +1,31 @@
+package com.jomeerkatz.gym.exceptions;
+
+// a client used up its request budget (AdmissionControl), it may try again after retryAfterSeconds
+public class TooManyRequestsException extends BaseException {
+
+    private long retryAfterSeconds = 1;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+
+    public TooManyRequestsException() {
+    }
+
+    public TooManyRequestsException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public TooManyRequestsException(Throwable cause) {
+        super(cause);
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
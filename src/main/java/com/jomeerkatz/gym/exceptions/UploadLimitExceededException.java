@@ -0,0 +1,18 @@
+package com.jomeerkatz.gym.exceptions;
+
+public class UploadLimitExceededException extends BaseException {
+    public UploadLimitExceededException(String message) {
+        super(message);
+    }
+
+    public UploadLimitExceededException() {
+    }
+
+    public UploadLimitExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public UploadLimitExceededException(Throwable cause) {
+        super(cause);
+    }
+}
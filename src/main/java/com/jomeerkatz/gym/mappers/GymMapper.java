@@ -1,6 +1,8 @@
 package com.jomeerkatz.gym.mappers;
 
+import com.jomeerkatz.gym.domain.GymCreateResult;
 import com.jomeerkatz.gym.domain.GymCreateUpdateRequest;
+import com.jomeerkatz.gym.domain.dtos.GymCreateResultDto;
 import com.jomeerkatz.gym.domain.dtos.GymDto;
 import com.jomeerkatz.gym.domain.dtos.GeoPointDto;
 import com.jomeerkatz.gym.domain.dtos.GymCreateUpdateRequestDto;
@@ -23,6 +25,19 @@ public interface GymMapper {
     @Mapping(source = "reviews", target = "totalReviews", qualifiedByName = "populateTotalReviews")
     GymSummaryDto toSummaryDto(Gym gym);
 
+    // gyms from the degraded-mode snapshot (GymSummarySnapshot) have no reviews, only their count in totalReviews
+    GymSummaryDto snapshotToSummaryDto(Gym gym);
+
+    GymDto snapshotToGymDto(Gym gym);
+
+    default GymCreateResultDto toCreateResultDto(GymCreateResult result) {
+        return GymCreateResultDto.builder()
+                .index(result.getIndex())
+                .gym(result.getGym() != null ? toSummaryDto(result.getGym()) : null)
+                .error(result.getError())
+                .build();
+    }
+
     @Named("populateTotalReviews")
     default Integer populateTotalReviews(List<Review> reviewList){
         if (reviewList == null || reviewList.isEmpty()) {
@@ -1,7 +1,10 @@
 package com.jomeerkatz.gym.mappers;
 
+import com.jomeerkatz.gym.domain.PhotoUploadResult;
 import com.jomeerkatz.gym.domain.dtos.PhotoDto;
+import com.jomeerkatz.gym.domain.dtos.PhotoUploadResultDto;
 import com.jomeerkatz.gym.domain.entities.Photo;
+import com.jomeerkatz.gym.domain.entities.PhotoMetadata;
 import org.mapstruct.Mapper;
 import org.mapstruct.ReportingPolicy;
 
@@ -10,6 +13,10 @@ import org.mapstruct.ReportingPolicy;
 @Mapper(componentModel = "spring", unmappedTargetPolicy = ReportingPolicy.IGNORE)
 public interface PhotoMapper {
     PhotoDto toDto(Photo photo);
+
+    Photo toPhoto(PhotoMetadata photoMetadata);
+
+    PhotoUploadResultDto toUploadResultDto(PhotoUploadResult photoUploadResult);
 }
 
 
@@ -3,7 +3,9 @@ package com.jomeerkatz.gym.mappers;
 import com.jomeerkatz.gym.domain.ReviewUpdateCreateRequest;
 import com.jomeerkatz.gym.domain.dtos.ReviewCreateUpdateRequestDto;
 import com.jomeerkatz.gym.domain.dtos.ReviewDto;
+import com.jomeerkatz.gym.domain.dtos.UserReviewDto;
 import com.jomeerkatz.gym.domain.entities.Review;
+import com.jomeerkatz.gym.domain.entities.UserReview;
 import org.mapstruct.Mapper;
 import org.mapstruct.ReportingPolicy;
 
@@ -12,4 +14,6 @@ public interface ReviewMapper {
     ReviewUpdateCreateRequest toReviewUpdateCreate(ReviewCreateUpdateRequestDto reviewCreateUpdateRequestDto);
 
     ReviewDto toDto(Review review);
+
+    UserReviewDto toDto(UserReview userReview);
 }
@@ -0,0 +1,9 @@
+package com.jomeerkatz.gym.repositories;
+
+import com.jomeerkatz.gym.domain.entities.PhotoMetadata;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PhotoMetadataRepository extends ElasticsearchRepository<PhotoMetadata, String> {
+}
@@ -0,0 +1,14 @@
+package com.jomeerkatz.gym.repositories;
+
+import com.jomeerkatz.gym.domain.entities.UserReview;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserReviewRepository extends ElasticsearchRepository<UserReview, String> {
+    Page<UserReview> findByUserId(String userId, Pageable pageable);
+
+    void deleteByGymId(String gymId);
+}
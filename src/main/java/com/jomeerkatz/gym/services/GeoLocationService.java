@@ -2,7 +2,31 @@ package com.jomeerkatz.gym.services;
 
 import com.jomeerkatz.gym.domain.GeoLocation;
 import com.jomeerkatz.gym.domain.entities.Address;
+import com.jomeerkatz.gym.exceptions.GeoLocationNotFoundException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 public interface GeoLocationService {
     GeoLocation geoLocate(Address address);
+
+    // one result per address, same order as the input; identical addresses are only geocoded once. An address that
+    // can't be located (GeoLocationNotFoundException) gets null instead of failing the others.
+    // Implementations that can answer many addresses at once (in parallel, in one pass) should override this.
+    default List<GeoLocation> geoLocateAll(List<Address> addresses) {
+        Map<Address, Optional<GeoLocation>> resolved = new HashMap<>();
+        return addresses.stream()
+                .map(address -> resolved.computeIfAbsent(address, this::tryGeoLocate).orElse(null))
+                .toList();
+    }
+
+    private Optional<GeoLocation> tryGeoLocate(Address address) {
+        try {
+            return Optional.of(geoLocate(address));
+        } catch (GeoLocationNotFoundException e) {
+            return Optional.empty();
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package com.jomeerkatz.gym.services;
+
+import com.jomeerkatz.gym.domain.GymExportResult;
+
+import java.io.OutputStream;
+
+// Full dump of the gyms index (reviews included) as gzip compressed NDJSON, one gym document per line.
+public interface GymExportService {
+    // writes the export to the stream (e.g. the http response), returns the number of exported gyms
+    long exportGyms(OutputStream outputStream);
+
+    // writes the export to a new file in the export directory
+    GymExportResult exportGymsToFile();
+}
@@ -1,15 +1,21 @@
 package com.jomeerkatz.gym.services;
 
+import com.jomeerkatz.gym.domain.GymCreateResult;
 import com.jomeerkatz.gym.domain.GymCreateUpdateRequest;
 import com.jomeerkatz.gym.domain.entities.Gym;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface GymService {
     Gym createGym(GymCreateUpdateRequest request);
 
+    // bulk onboarding: all addresses are geocoded in one batch and the gyms are indexed with a single bulk request
+    // one result per request, same order: the saved gym, or the error if it couldn't be created
+    List<GymCreateResult> createGyms(List<GymCreateUpdateRequest> requests);
+
     Page<Gym> searchGyms(
             String query,
             Float minRating,
@@ -21,6 +27,10 @@ public interface GymService {
 
     Optional<Gym> getGym(String id);
 
+    // Several gyms in one round trip, only with the fields a summary needs. Same order as the ids, a gym that
+    // doesn't exist is an empty Optional at its position.
+    List<Optional<Gym>> getGymSummaries(List<String> ids);
+
     void deleteGym(String id);
 
     Gym updateGym(String id, GymCreateUpdateRequest gymCreateUpdateRequest);
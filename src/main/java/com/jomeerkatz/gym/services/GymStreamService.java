@@ -0,0 +1,16 @@
+package com.jomeerkatz.gym.services;
+
+import com.jomeerkatz.gym.domain.entities.Gym;
+import reactor.core.publisher.Flux;
+
+// Same filters as GymService.searchGyms, but without paging: every matching gym is emitted as soon as its batch
+// arrives from elasticsearch, and only as fast as the client reads them.
+public interface GymStreamService {
+    Flux<Gym> streamGyms(
+            String query,
+            Float minRating,
+            Float latitude,
+            Float longitude,
+            Float radius
+    );
+}
@@ -1,13 +1,25 @@
 package com.jomeerkatz.gym.services;
 
+import com.jomeerkatz.gym.domain.PhotoUploadResult;
 import com.jomeerkatz.gym.domain.entities.Photo;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.util.List;
 import java.util.Optional;
 
 public interface PhotoService {
     Photo uploadFile(MultipartFile file);
 
+    // uploads the files concurrently, results keep the order of the input, one failing file doesn't fail the others
+    List<PhotoUploadResult> uploadFiles(List<MultipartFile> files);
+
+    // raw request body (no multipart) -> written to disk in one pass
+    Photo uploadStream(InputStream inputStream);
+
+    // turns the photo ids sent with a gym/review into photos carrying the metadata captured at upload time
+    List<Photo> resolvePhotos(List<String> urls);
+
     Optional<Resource> getPhotoAsResource(String id);
 }
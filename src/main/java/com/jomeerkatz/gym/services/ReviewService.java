@@ -4,6 +4,7 @@ import com.jomeerkatz.gym.domain.ReviewUpdateCreateRequest;
 import com.jomeerkatz.gym.domain.dtos.ReviewCreateUpdateRequestDto;
 import com.jomeerkatz.gym.domain.entities.Review;
 import com.jomeerkatz.gym.domain.entities.User;
+import com.jomeerkatz.gym.domain.entities.UserReview;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
@@ -16,4 +17,19 @@ public interface ReviewService {
     Optional<Review> getReview(String gymId, String reviewId);
     Review updateReview(User user, String gymId, String reviewId, ReviewUpdateCreateRequest review);
     void deleteReview(User user, String gymId, String reviewId);
+
+    // Adds already accepted reviews to a gym with a single write. Safe to call again with the same reviews: reviews
+    // whose id is already there are skipped, as are reviews of authors who already reviewed the gym.
+    // Returns the number of reviews that were actually added.
+    int addReviews(String gymId, List<Review> reviews);
+
+    Page<UserReview> listUserReviews(String userId, Pageable pageable);
+
+    // Fills the user review index from the reviews embedded in the gyms (first start with this index, or to repair
+    // it after a crash between the gym and the user review write). Returns the number of reviews indexed.
+    long rebuildUserReviews();
+
+    // Sets totalReviews of every gym to the number of its reviews (gyms written before review writes kept it up to
+    // date). Returns the number of gyms updated.
+    long recountReviews();
 }
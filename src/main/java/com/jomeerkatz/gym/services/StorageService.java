@@ -1,16 +1,27 @@
 package com.jomeerkatz.gym.services;
 
+import com.jomeerkatz.gym.domain.StoredFile;
+import com.jomeerkatz.gym.domain.StoredImage;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface StorageService {
 
     // MultipartFile -> bec this is the type we get when we upload file to a springboot controller
     // it represents a file, which gets sent via http request
     String store(MultipartFile file, String filename);
+    // single pass: sniffs type/dimensions from the first bytes, hashes and writes the stream directly to disk
+    StoredImage storeImage(InputStream inputStream, String filename);
     // Resource: abstract is a type which is an abstract representation of a resource. its kind of generell type
     // it is any datasource, which i can access
     Optional<Resource> loadAsResource(String id);
+
+    // lazily walks the storage location -> the stream has to be closed by the caller (try-with-resources)
+    Stream<StoredFile> listStoredFiles();
+
+    boolean delete(String filename);
 }
@@ -0,0 +1,101 @@
+package com.jomeerkatz.gym.services.impl;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Brings address components into one canonical spelling, so "Mönckebergstr. " and "moenckebergstrasse" end up as the
+// same key. Used for the gazetteer file and for the addresses we look up, both sides have to be normalized the same way.
+final class AddressNormalizer {
+
+    // "germany", "deutschland", "de" -> "de"
+    private static final Map<String, String> COUNTRY_CODES = createCountryCodes();
+
+    private AddressNormalizer() {
+    }
+
+    // lowercase, umlauts spelled out, other accents dropped, punctuation collapsed into single spaces.
+    // Hand-written single pass on purpose: it runs for every lookup, a chain of regexes would dominate the latency.
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(value.length() + 8);
+        int wordStart = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = Character.toLowerCase(value.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                normalized.append(c);
+            } else if (c < 128) {
+                // whitespace and punctuation end the current word
+                wordStart = endWord(normalized, wordStart);
+            } else {
+                appendNonAscii(normalized, c);
+            }
+        }
+        endWord(normalized, wordStart);
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ' ') {
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+
+    // expands a trailing "str" ("hauptstr", "haupt str") to "strasse" and adds a single separator
+    private static int endWord(StringBuilder normalized, int wordStart) {
+        int length = normalized.length();
+        if (length == wordStart) {
+            return wordStart;
+        }
+        if (length - wordStart >= 3 && normalized.charAt(length - 3) == 's'
+                && normalized.charAt(length - 2) == 't' && normalized.charAt(length - 1) == 'r') {
+            if (length - wordStart == 3 && wordStart > 0) {
+                // "haupt str" -> glue it to the previous word
+                normalized.deleteCharAt(wordStart - 1);
+            }
+            normalized.append("asse");
+        }
+        normalized.append(' ');
+        return normalized.length();
+    }
+
+    private static void appendNonAscii(StringBuilder normalized, char c) {
+        switch (c) {
+            case 'ß' -> normalized.append("ss");
+            case 'ä' -> normalized.append("ae");
+            case 'ö' -> normalized.append("oe");
+            case 'ü' -> normalized.append("ue");
+            default -> {
+                // other accents are dropped: é -> e
+                String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+                char base = decomposed.charAt(0);
+                if ((base >= 'a' && base <= 'z') || (base >= '0' && base <= '9')) {
+                    normalized.append(base);
+                }
+            }
+        }
+    }
+
+    static String normalizeCountry(String country) {
+        String normalized = normalize(country);
+        return COUNTRY_CODES.getOrDefault(normalized, normalized);
+    }
+
+    static String normalizePostalCode(String postalCode) {
+        // postal codes are compared without any spaces ("1011 AB" vs "1011AB")
+        return normalize(postalCode).replace(" ", "");
+    }
+
+    private static Map<String, String> createCountryCodes() {
+        Map<String, String> codes = new HashMap<>();
+        for (String code : Locale.getISOCountries()) {
+            Locale locale = Locale.of("", code);
+            String isoCode = code.toLowerCase(Locale.ROOT);
+            codes.put(isoCode, isoCode);
+            codes.put(normalize(locale.getDisplayCountry(Locale.ENGLISH)), isoCode);
+            codes.put(normalize(locale.getDisplayCountry(Locale.GERMAN)), isoCode);
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,185 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.GeoLocation;
+import com.jomeerkatz.gym.domain.entities.Address;
+import com.jomeerkatz.gym.services.GeoLocationService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sits in front of the actual geocoder (bean "geoLocationProvider") and remembers results per normalized address.
+// Imports create many gyms with the same address spelled slightly differently - only the first one hits the geocoder.
+// Bounded (least recently used entries go first) and every entry expires after the ttl, so corrected gazetteer data
+// or a remote geocoder with better results eventually shows up.
+@Service
+@Primary
+public class CachingGeoLocationService implements GeoLocationService, MeterBinder {
+
+    private final GeoLocationService delegate;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Executor geocodingExecutor;
+    private final int batchChunkSize;
+
+    // access-ordered -> eldest entry is the least recently used one
+    private final LinkedHashMap<String, CachedLocation> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingGeoLocationService(
+            @Qualifier("geoLocationProvider") GeoLocationService delegate,
+            @Value("${app.geo.cache.max-entries:10000}") int maxEntries,
+            @Value("${app.geo.cache.ttl:24h}") Duration ttl,
+            @Qualifier("geocodingExecutor") Executor geocodingExecutor,
+            @Value("${app.geo.batch.chunk-size:500}") int batchChunkSize
+    ) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.geocodingExecutor = geocodingExecutor;
+        this.batchChunkSize = batchChunkSize;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLocation> eldest) {
+                return size() > CachingGeoLocationService.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public GeoLocation geoLocate(Address address) {
+        String key = cacheKey(address);
+        Instant now = Instant.now();
+
+        synchronized (cache) {
+            CachedLocation cached = cache.get(key);
+            if (cached != null && now.isBefore(cached.expiresAt())) {
+                hits.increment();
+                return copy(cached.location());
+            }
+        }
+        misses.increment();
+
+        // geocode outside the lock, a slow (remote) geocoder must not block lookups of other addresses.
+        // Two threads asking for the same new address at once both geocode it, which is harmless.
+        GeoLocation location = delegate.geoLocate(address);
+
+        synchronized (cache) {
+            cache.put(key, new CachedLocation(copy(location), now.plus(ttl)));
+        }
+        return location;
+    }
+
+    @Override
+    public List<GeoLocation> geoLocateAll(List<Address> addresses) {
+        Instant now = Instant.now();
+        List<String> keys = addresses.stream().map(CachingGeoLocationService::cacheKey).toList();
+
+        // 1. answer everything we can from the cache in one go, collect each unknown address only once
+        Map<String, GeoLocation> resolved = new HashMap<>();
+        Map<String, Address> missing = new LinkedHashMap<>();
+        synchronized (cache) {
+            for (int i = 0; i < addresses.size(); i++) {
+                String key = keys.get(i);
+                CachedLocation cached = cache.get(key);
+                if (cached != null && now.isBefore(cached.expiresAt())) {
+                    resolved.put(key, cached.location());
+                } else {
+                    missing.putIfAbsent(key, addresses.get(i));
+                }
+            }
+        }
+
+        hits.add(addresses.size() - missing.size());
+        misses.add(missing.size());
+
+        // 2. geocode the rest in chunks, in parallel - the provider answers each chunk in one pass
+        List<String> missingKeys = new ArrayList<>(missing.keySet());
+        List<Address> missingAddresses = new ArrayList<>(missing.values());
+        List<CompletableFuture<List<GeoLocation>>> chunks = new ArrayList<>();
+        for (int from = 0; from < missingAddresses.size(); from += batchChunkSize) {
+            List<Address> chunk = missingAddresses.subList(from, Math.min(from + batchChunkSize, missingAddresses.size()));
+            chunks.add(CompletableFuture.supplyAsync(() -> delegate.geoLocateAll(chunk), geocodingExecutor));
+        }
+
+        int index = 0;
+        for (CompletableFuture<List<GeoLocation>> chunk : chunks) {
+            for (GeoLocation location : join(chunk)) {
+                resolved.put(missingKeys.get(index++), location);
+            }
+        }
+
+        // addresses that couldn't be located are not cached, they stay null in the result
+        synchronized (cache) {
+            for (String key : missingKeys) {
+                GeoLocation location = resolved.get(key);
+                if (location != null) {
+                    cache.put(key, new CachedLocation(copy(location), now.plus(ttl)));
+                }
+            }
+        }
+
+        // 3. back to the order of the input, duplicates share the result
+        return keys.stream().map(key -> resolved.get(key) != null ? copy(resolved.get(key)) : null).toList();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gym.geo.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("gym.geo.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        Gauge.builder("gym.geo.cache.size", cache, map -> {
+            synchronized (map) {
+                return map.size();
+            }
+        }).register(registry);
+    }
+
+    // rethrow what the provider threw (e.g. the gazetteer file can't be read), so the error handling stays the same as
+    // for single lookups
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static String cacheKey(Address address) {
+        return AddressNormalizer.normalizeCountry(address.getCountry())
+                + '|' + AddressNormalizer.normalize(address.getCity())
+                + '|' + AddressNormalizer.normalizePostalCode(address.getPostalCode())
+                + '|' + AddressNormalizer.normalize(address.getStreetName())
+                + '|' + AddressNormalizer.normalize(address.getStreetNumber());
+    }
+
+    // GeoLocation is mutable, callers must not be able to change what's in the cache
+    private static GeoLocation copy(GeoLocation location) {
+        return GeoLocation.builder()
+                .latitude(location.getLatitude())
+                .longitute(location.getLongitute())
+                .build();
+    }
+
+    private record CachedLocation(GeoLocation location, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,216 @@
+package com.jomeerkatz.gym.services.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Append-only log on the local disk with one consumer: producers append records (one line each), the consumer reads
+// from its committed offset and commits a new offset once the records are processed.
+//
+// - an append returns only after the record is fsynced -> an accepted record survives a crash. Group commit: the
+//   record is written under the write lock, the fsync happens after it - whoever gets to fsync first makes everything
+//   written so far durable, appends that were written in the meantime find their record already covered and return
+//   without an fsync of their own. Concurrent appends share one fsync instead of queueing up for one each.
+// - the consumer only sees records that are fsynced
+// - the offset is committed after processing -> after a crash the consumer sees the last batch again (at least once)
+// - a record that was only half written when the process died is cut off on startup
+// - once everything is consumed and the file is bigger than maxBytes it is truncated, so the log doesn't grow forever
+//
+// ReentrantLocks instead of synchronized, we block on disk I/O while holding them and must not pin virtual threads.
+// Lock order: syncLock before writeLock.
+final class DurableAppendLog implements Closeable {
+
+    record Entry(byte[] data, long endOffset) {
+    }
+
+    private final Path logFile;
+    private final Path offsetFile;
+    private final long maxBytes;
+    private final FileChannel channel;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    // written (guarded by writeLock) and fsynced (written under syncLock) length of the log
+    private long size;
+    private volatile long syncedSize;
+    private volatile long committedOffset;
+
+    DurableAppendLog(Path directory, String name, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        this.logFile = directory.resolve(name + ".log");
+        this.offsetFile = directory.resolve(name + ".offset");
+        this.maxBytes = maxBytes;
+        this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.committedOffset = readCommittedOffset();
+        this.size = truncateTornTail();
+        this.syncedSize = size;
+    }
+
+    void append(byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length + 1).put(record).put((byte) '\n').flip();
+        long end;
+        writeLock.lock();
+        try {
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            size = position;
+            end = position;
+        } finally {
+            writeLock.unlock();
+        }
+        sync(end);
+    }
+
+    // returns once everything up to end is fsynced, by this thread or by one that got the sync lock before it
+    private void sync(long end) throws IOException {
+        syncLock.lock();
+        try {
+            if (syncedSize >= end) {
+                return;
+            }
+            long written = currentSize();
+            // fdatasync: the data and the new file length, skips metadata like timestamps
+            channel.force(false);
+            syncedSize = written;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // reads up to maxEntries complete, fsynced records after the committed offset
+    List<Entry> read(int maxEntries) throws IOException {
+        return read(committedOffset, maxEntries);
+    }
+
+    // the same from any offset (the end offset of an earlier entry), without consuming anything
+    List<Entry> read(long offset, int maxEntries) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long end = syncedSize;
+        if (offset >= end) {
+            return entries;
+        }
+
+        try (FileChannel reader = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            reader.position(offset);
+            InputStream inputStream = new BufferedInputStream(Channels.newInputStream(reader), 64 * 1024);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (entries.size() < maxEntries && offset < end) {
+                int next = inputStream.read();
+                if (next < 0) {
+                    break;
+                }
+                offset++;
+                if (next == '\n') {
+                    entries.add(new Entry(line.toByteArray(), offset));
+                    line.reset();
+                } else {
+                    line.write(next);
+                }
+            }
+        }
+        return entries;
+    }
+
+    void commit(long offset) throws IOException {
+        writeOffset(offset);
+        committedOffset = offset;
+        compactIfDrained();
+    }
+
+    long committedOffset() {
+        return committedOffset;
+    }
+
+    long pendingBytes() {
+        return syncedSize - committedOffset;
+    }
+
+    private long currentSize() {
+        writeLock.lock();
+        try {
+            return size;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void compactIfDrained() throws IOException {
+        // the sync lock too, an fsync in flight must not set syncedSize to a length from before the truncate
+        syncLock.lock();
+        writeLock.lock();
+        try {
+            if (committedOffset < size || size < maxBytes) {
+                return;
+            }
+            // nothing unconsumed left -> start over with an empty file (offset first, a crash in between only
+            // means we replay an already consumed log, never that we skip records)
+            writeOffset(0);
+            committedOffset = 0;
+            channel.truncate(0);
+            channel.force(true);
+            size = 0;
+            syncedSize = 0;
+        } finally {
+            writeLock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    private void writeOffset(long offset) throws IOException {
+        Path tempFile = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+        try (FileChannel offsetChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            offsetChannel.write(ByteBuffer.wrap(Long.toString(offset).getBytes(StandardCharsets.US_ASCII)));
+            offsetChannel.force(true);
+        }
+        Files.move(tempFile, offsetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private long readCommittedOffset() throws IOException {
+        if (!Files.exists(offsetFile)) {
+            return 0;
+        }
+        long offset = Long.parseLong(Files.readString(offsetFile, StandardCharsets.US_ASCII).trim());
+        return Math.min(offset, channel.size());
+    }
+
+    // everything after the last newline is a record we were writing when the process died
+    private long truncateTornTail() throws IOException {
+        long fileSize = channel.size();
+        long position = fileSize;
+        ByteBuffer single = ByteBuffer.allocate(1);
+        while (position > committedOffset) {
+            single.clear();
+            channel.read(single, position - 1);
+            if (single.get(0) == '\n') {
+                break;
+            }
+            position--;
+        }
+        if (position < fileSize) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
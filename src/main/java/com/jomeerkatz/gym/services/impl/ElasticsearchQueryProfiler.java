@@ -0,0 +1,88 @@
+package com.jomeerkatz.gym.services.impl;
+
+import co.elastic.clients.transport.rest5_client.low_level.Request;
+import co.elastic.clients.transport.rest5_client.low_level.Response;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5Client;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Development only (app.elasticsearch.profile.enabled=true): a request with ?profile=true collects the elasticsearch
+// profile of every search it runs, and the response carries them next to the normal body.
+//
+// The client can't add "profile": true to a search built by a repository, so the search is sent a second time with
+// the flag set, directly through the low level client. That doubles the cost - which is fine for looking at one
+// request on a dev machine and the reason this is never on in production.
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "app.elasticsearch.profile.enabled", havingValue = "true")
+public class ElasticsearchQueryProfiler {
+
+    private final ThreadLocal<List<Map<String, Object>>> profiles = new ThreadLocal<>();
+    private final Rest5Client restClient;
+    private final JsonMapper jsonMapper;
+
+    public ElasticsearchQueryProfiler(Rest5Client restClient, JsonMapper jsonMapper) {
+        this.restClient = restClient;
+        this.jsonMapper = jsonMapper;
+    }
+
+    public void start() {
+        profiles.set(new ArrayList<>());
+    }
+
+    public boolean isActive() {
+        return profiles.get() != null;
+    }
+
+    public List<Map<String, Object>> stop() {
+        List<Map<String, Object>> collected = profiles.get();
+        profiles.remove();
+        return collected == null ? List.of() : collected;
+    }
+
+    public List<Map<String, Object>> current() {
+        List<Map<String, Object>> collected = profiles.get();
+        return collected == null ? List.of() : collected;
+    }
+
+    // runs the search again with profiling on and keeps the profile for the current request
+    public void profile(String path, String searchBody) {
+        List<Map<String, Object>> collected = profiles.get();
+        if (collected == null) {
+            return;
+        }
+        try {
+            Request request = new Request("POST", path);
+            request.setJsonEntity(withProfile(searchBody));
+            Response response = restClient.performRequest(request);
+            JsonNode result = jsonMapper.readTree(EntityUtils.toString(response.getEntity()));
+
+            Map<String, Object> profile = new LinkedHashMap<>();
+            profile.put("path", path);
+            profile.put("query", jsonMapper.readTree(searchBody));
+            profile.put("tookMillis", result.path("took").asLong());
+            profile.put("profile", result.get("profile"));
+            collected.add(profile);
+        } catch (Exception e) {
+            // profiling is a debugging aid, it must never break the request itself
+            log.warn("could not profile search on {}", path, e);
+        }
+    }
+
+    private static String withProfile(String searchBody) {
+        String body = searchBody.isBlank() ? "{}" : searchBody.trim();
+        if (body.equals("{}")) {
+            return "{\"profile\":true}";
+        }
+        return "{\"profile\":true," + body.substring(1);
+    }
+}
@@ -1,6 +1,10 @@
 package com.jomeerkatz.gym.services.impl;
 
 import ch.qos.logback.core.util.StringUtil;
+import com.jomeerkatz.gym.domain.StoredFile;
+import com.jomeerkatz.gym.domain.StoredImage;
+import com.jomeerkatz.gym.exceptions.InvalidPhotoException;
+import com.jomeerkatz.gym.exceptions.PhotoTooLargeException;
 import com.jomeerkatz.gym.exceptions.StorageException;
 import com.jomeerkatz.gym.services.StorageService;
 import jakarta.annotation.PostConstruct;
@@ -10,17 +14,27 @@ import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 // @Slf4j generates a Logger instance named 'log' for this class.
@@ -34,6 +48,26 @@ public class FileSystemStorageService implements StorageService {
     @Value("${app.storage.location:uploads}")
     private String storageLocation;
 
+    // everything about the image we need to know is in the first bytes (jpeg metadata segments can be large)
+    private static final int HEADER_BYTES = 256 * 1024;
+
+    private static final String TEMP_FILE_PREFIX = ".upload-";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    @Value("${app.upload.max-size:10MB}")
+    private DataSize maxSize;
+
+    // width * height, a 40 MP image already needs ~160 MB once decoded
+    @Value("${app.upload.max-pixels:40000000}")
+    private long maxPixels;
+
+    @Value("${app.upload.max-dimension:12000}")
+    private int maxDimension;
+
+    // an upload writes its temp file continuously, one that wasn't touched for this long belongs to a dead process
+    @Value("${app.upload.stale-temp-age:10m}")
+    private Duration staleTempAge;
+
     private Path rootLocation; // not initlize in constructor since an exception can appear. we do it with in postconstruct
 
     @PostConstruct // run this AFTER dependency injection
@@ -44,44 +78,123 @@ public class FileSystemStorageService implements StorageService {
         } catch (IOException e) {
             throw new StorageException("could not initilize storage location", e);
         }
+        deleteStaleTempFiles();
+    }
+
+    // temp files of uploads that were running when the process died. They are hidden, so the orphaned photo collector
+    // doesn't see them. Only stale ones: another instance may share the directory and be writing its uploads right now
+    private void deleteStaleTempFiles() {
+        Instant cutoff = Instant.now().minus(staleTempAge);
+        try (Stream<Path> tempFiles = Files.list(rootLocation)) {
+            tempFiles.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(TEMP_FILE_PREFIX) && name.endsWith(TEMP_FILE_SUFFIX);
+            }).forEach(path -> {
+                try {
+                    if (Files.getLastModifiedTime(path).toInstant().isBefore(cutoff) && Files.deleteIfExists(path)) {
+                        log.info("deleted temp file {} of an interrupted upload", path.getFileName());
+                    }
+                } catch (IOException e) {
+                    log.warn("could not delete temp file {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("could not clean up temp files in {}", rootLocation, e);
+        }
     }
 
     @Override
     public String store(MultipartFile file, String filename) { // filename is just "page" and not page.tsx" for example
+        // Check if the uploaded file has no content; empty uploads are invalid and must be rejected.
+        if (file.isEmpty()) {
+            throw new StorageException("cannot save an empty file!");
+        }
+        // multipart uploads take the same single pass path as raw streamed uploads
+        try (InputStream inputStream = file.getInputStream()) {
+            return storeImage(inputStream, filename).getFilename();
+        } catch (IOException e) {
+            throw new StorageException("failed to store file", e);
+        }
+    }
+
+    @Override
+    public StoredImage storeImage(InputStream inputStream, String filename) {
+        // one buffer for everything: first filled with the header bytes we sniff, then reused for copying the rest
+        byte[] buffer = new byte[HEADER_BYTES];
         try {
-            // Check if the uploaded file has no content; empty uploads are invalid and must be rejected.
-            if (file.isEmpty()) {
+            int headLength = inputStream.readNBytes(buffer, 0, buffer.length);
+            if (headLength == 0) {
                 throw new StorageException("cannot save an empty file!");
             }
-            // Extract the extension (e.g., "png", "jpg") from the original filename provided by the client. Does not include the dot.
-            String extension = StringUtils.getFilenameExtension(file.getOriginalFilename()); // file.getOrigin... is the complete name like "page.tsx"
-            // Build the final filename using the provided base name plus the original file's extension.
-            String finalFileName = filename + "." + extension;
-            // Construct the full storage path by safely resolving the filename inside the root directory, normalizing to remove "../" sequences, and converting to an absolute path.
-            Path destinationFile = rootLocation
-                    .resolve(Paths.get(finalFileName)) // create Path object -> pure representation of a location in the filesystem.
-                    .normalize()       // cleans the path: removes "../", "./", and duplicate slashes
-                    .toAbsolutePath(); // converts the path into a full absolute filesystem path starting from /
-
-
-            // Security check: ensure the resolved destination is still inside the root upload directory. Prevents path traversal attacks.
-            if (!destinationFile.getParent().equals(rootLocation.toAbsolutePath())) {
-                throw new StorageException("cannot store file outside specified directory!");
+
+            // type and dimensions come from the header only -> no pixel gets decoded before we accept the image
+            ImageHeaderSniffer.ImageHeader header = ImageHeaderSniffer.sniff(buffer, headLength)
+                    .orElseThrow(() -> new InvalidPhotoException("unsupported or unreadable image format"));
+            if (header.width() > maxDimension || header.height() > maxDimension || header.pixels() > maxPixels) {
+                // small file, gigantic canvas -> decompression bomb, decoding it would eat up the heap
+                throw new InvalidPhotoException("image dimensions %dx%d exceed the limit".formatted(header.width(), header.height()));
             }
 
-            // Copy the uploaded file's data into the destination path, replacing any existing file with the same name.
-            try (InputStream inputStream = file.getInputStream()) {
-                // take the insputStream (entry point of the read) -> take the path/location where we want to copy it
-                // (which is the created absolute path), and replace already existing files
-                Files.copy(inputStream, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            // The extension comes from the detected type and not from the client's filename anymore.
+            Path destinationFile = resolveInsideRoot(filename + "." + header.extension());
+
+            // write into a hidden temp file next to the destination, so the final move is atomic and no half written
+            // photo is ever visible under its real name
+            Path tempFile = Files.createTempFile(rootLocation, TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+            MessageDigest digest = sha256();
+            long size = 0;
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                int read = headLength;
+                do {
+                    size += read;
+                    if (size > maxSize.toBytes()) {
+                        throw new PhotoTooLargeException("photo is larger than " + maxSize);
+                    }
+                    digest.update(buffer, 0, read);
+                    outputStream.write(buffer, 0, read);
+                } while ((read = inputStream.read(buffer)) != -1);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tempFile);
+                throw e;
             }
 
-            return finalFileName;
+            Files.move(tempFile, destinationFile, StandardCopyOption.ATOMIC_MOVE);
+
+            return StoredImage.builder()
+                    .filename(destinationFile.getFileName().toString())
+                    .sizeBytes(size)
+                    .sha256(HexFormat.of().formatHex(digest.digest()))
+                    .mimeType(header.mimeType())
+                    .width(header.width())
+                    .height(header.height())
+                    .build();
         } catch (IOException e) {
             throw new StorageException("failed to store file", e);
         }
     }
 
+    private Path resolveInsideRoot(String finalFileName) {
+        // Construct the full storage path by safely resolving the filename inside the root directory, normalizing to remove "../" sequences, and converting to an absolute path.
+        Path destinationFile = rootLocation
+                .resolve(Paths.get(finalFileName)) // create Path object -> pure representation of a location in the filesystem.
+                .normalize()       // cleans the path: removes "../", "./", and duplicate slashes
+                .toAbsolutePath(); // converts the path into a full absolute filesystem path starting from /
+
+        // Security check: ensure the resolved destination is still inside the root upload directory. Prevents path traversal attacks.
+        if (!destinationFile.getParent().equals(rootLocation.toAbsolutePath())) {
+            throw new StorageException("cannot store file outside specified directory!");
+        }
+        return destinationFile;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
     @Override
     public Optional<Resource> loadAsResource(String filename) {
         try {
@@ -102,4 +215,50 @@ public class FileSystemStorageService implements StorageService {
             return Optional.empty();
         }
     }
+
+    @Override
+    public Stream<StoredFile> listStoredFiles() {
+        try {
+            // Files.list is lazy and does not recurse -> the upload directory is flat anyway
+            return Files.list(rootLocation)
+                    .filter(Files::isRegularFile)
+                    // hidden files (e.g. temp files of running uploads) are not photos
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .map(this::toStoredFile)
+                    .filter(Objects::nonNull);
+        } catch (IOException e) {
+            throw new StorageException("could not list storage location", e);
+        }
+    }
+
+    @Override
+    public boolean delete(String filename) {
+        Path file = rootLocation.resolve(filename).normalize().toAbsolutePath();
+
+        // same path traversal protection as in store()
+        if (!file.getParent().equals(rootLocation.toAbsolutePath())) {
+            throw new StorageException("cannot delete file outside specified directory!");
+        }
+
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new StorageException("failed to delete file", e);
+        }
+    }
+
+    private StoredFile toStoredFile(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return StoredFile.builder()
+                    .filename(path.getFileName().toString())
+                    .sizeBytes(attributes.size())
+                    .lastModified(attributes.lastModifiedTime().toInstant())
+                    .build();
+        } catch (IOException e) {
+            // file was removed while we were walking the directory
+            log.debug("could not read attributes of {}", path, e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,44 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.GeoLocation;
+import com.jomeerkatz.gym.domain.entities.Address;
+import com.jomeerkatz.gym.exceptions.GeoLocationNotFoundException;
+import com.jomeerkatz.gym.exceptions.StorageException;
+import com.jomeerkatz.gym.services.GeoLocationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Geocodes against a local gazetteer file (see GazetteerIndex for the format). The file is loaded once at startup,
+// lookups are a binary search in memory - no network, no rate limits.
+// Enable with app.geo.provider=gazetteer and point app.geo.gazetteer.location at the file.
+@Service("geoLocationProvider")
+@Slf4j
+@ConditionalOnProperty(name = "app.geo.provider", havingValue = "gazetteer")
+public class GazetteerGeoLocationService implements GeoLocationService {
+
+    private final GazetteerIndex index;
+
+    public GazetteerGeoLocationService(@Value("${app.geo.gazetteer.location:file:./data/gazetteer.csv}") Resource gazetteer) {
+        long start = System.nanoTime();
+        try (InputStream inputStream = gazetteer.getInputStream()) {
+            this.index = GazetteerIndex.load(inputStream);
+        } catch (IOException e) {
+            throw new StorageException("could not load gazetteer from " + gazetteer.getDescription(), e);
+        }
+        log.info("loaded gazetteer with {} entries ({} KB) in {} ms",
+                index.size(), index.memoryBytes() / 1024, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public GeoLocation geoLocate(Address address) {
+        return index.locate(address)
+                .orElseThrow(() -> new GeoLocationNotFoundException("could not locate address in "
+                        + address.getPostalCode() + " " + address.getCity()));
+    }
+}
@@ -0,0 +1,259 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.GeoLocation;
+import com.jomeerkatz.gym.domain.entities.Address;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// In-memory index over a gazetteer file with street, postal code and city centroids.
+//
+// File format (UTF-8, one centroid per line, '#' starts a comment):
+//   country;postalCode;city;street;latitude;longitude
+// street and postal code may be empty for coarser centroids.
+//
+// Every entry gets a key built from its normalized components, ordered from coarse to fine:
+//   country|city|postalCode|street
+// All keys are sorted and packed into one byte array with an offset table, coordinates live in two float arrays.
+// Sorted keys behave like a flattened prefix trie: everything below "de|hamburg|" sits in one contiguous range, and a
+// lookup is a binary search - no objects per entry, no hashing, no pointer chasing. A country-sized file with ~1.5
+// million street centroids takes ~75 MB and answers a lookup in about 2 microseconds (see GazetteerBenchmarkTest).
+//
+// Centroids for city, city + postal code and postal code alone are derived at load time (average of the streets below
+// them) unless the file already contains them, so each fallback level is a single exact lookup as well.
+public final class GazetteerIndex {
+
+    private static final char SEPARATOR = '|';
+
+    private final byte[] keys;
+    private final int[] keyOffsets; // key i = keys[keyOffsets[i] .. keyOffsets[i + 1])
+    private final float[] latitudes;
+    private final float[] longitudes;
+
+    private GazetteerIndex(byte[] keys, int[] keyOffsets, float[] latitudes, float[] longitudes) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    public static GazetteerIndex load(InputStream inputStream) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                entries.add(parse(line, lineNumber));
+            }
+        }
+        return build(entries);
+    }
+
+    public Optional<GeoLocation> locate(Address address) {
+        String country = AddressNormalizer.normalizeCountry(address.getCountry());
+        String city = AddressNormalizer.normalize(address.getCity());
+        String postalCode = AddressNormalizer.normalizePostalCode(address.getPostalCode());
+        String street = AddressNormalizer.normalize(address.getStreetName());
+
+        // most precise first: street -> postal code within the city -> postal code alone -> city
+        int index = -1;
+        if (!street.isEmpty()) {
+            index = find(key(country, city, postalCode, street));
+        }
+        if (index < 0 && !postalCode.isEmpty()) {
+            index = find(key(country, city, postalCode, ""));
+        }
+        if (index < 0 && !postalCode.isEmpty()) {
+            index = find(key(country, "", postalCode, ""));
+        }
+        if (index < 0 && !city.isEmpty()) {
+            index = find(key(country, city, "", ""));
+        }
+
+        if (index < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(GeoLocation.builder()
+                .latitude((double) latitudes[index])
+                .longitute((double) longitudes[index])
+                .build());
+    }
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    // bytes held by the index arrays (without array headers)
+    public long memoryBytes() {
+        return keys.length + 4L * keyOffsets.length + 4L * latitudes.length + 4L * longitudes.length;
+    }
+
+    private int find(String key) {
+        byte[] wanted = key.getBytes(StandardCharsets.US_ASCII);
+        int low = 0;
+        int high = latitudes.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareKey(middle, wanted);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKey(int index, byte[] wanted) {
+        int start = keyOffsets[index];
+        int length = keyOffsets[index + 1] - start;
+        int common = Math.min(length, wanted.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (keys[start + i] & 0xFF) - (wanted[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - wanted.length;
+    }
+
+    private static Entry parse(String line, int lineNumber) {
+        String[] columns = line.split(";", -1);
+        if (columns.length != 6) {
+            throw new IllegalArgumentException("gazetteer line " + lineNumber + " must have 6 columns");
+        }
+        try {
+            return new Entry(
+                    key(AddressNormalizer.normalizeCountry(columns[0]),
+                            AddressNormalizer.normalize(columns[2]),
+                            AddressNormalizer.normalizePostalCode(columns[1]),
+                            AddressNormalizer.normalize(columns[3])),
+                    Float.parseFloat(columns[4].trim()),
+                    Float.parseFloat(columns[5].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("gazetteer line " + lineNumber + " has invalid coordinates", e);
+        }
+    }
+
+    private static GazetteerIndex build(List<Entry> entries) {
+        entries.sort(Comparator.comparing(Entry::key));
+
+        // duplicates (e.g. one line per house number) are merged into their average
+        List<Entry> merged = new ArrayList<>(entries.size());
+        Centroid duplicates = null;
+        String currentKey = null;
+        for (Entry entry : entries) {
+            if (!entry.key().equals(currentKey)) {
+                if (duplicates != null) {
+                    merged.add(duplicates.toEntry(currentKey));
+                }
+                currentKey = entry.key();
+                duplicates = new Centroid();
+            }
+            duplicates.add(entry);
+        }
+        if (duplicates != null) {
+            merged.add(duplicates.toEntry(currentKey));
+        }
+
+        merged.addAll(deriveCentroids(merged));
+        merged.sort(Comparator.comparing(Entry::key));
+
+        int totalKeyBytes = 0;
+        for (Entry entry : merged) {
+            totalKeyBytes += entry.key().length(); // keys are plain ascii after normalization
+        }
+
+        byte[] keys = new byte[totalKeyBytes];
+        int[] keyOffsets = new int[merged.size() + 1];
+        float[] latitudes = new float[merged.size()];
+        float[] longitudes = new float[merged.size()];
+        int offset = 0;
+        for (int i = 0; i < merged.size(); i++) {
+            Entry entry = merged.get(i);
+            byte[] key = entry.key().getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(key, 0, keys, offset, key.length);
+            keyOffsets[i] = offset;
+            offset += key.length;
+            latitudes[i] = entry.latitude();
+            longitudes[i] = entry.longitude();
+        }
+        keyOffsets[merged.size()] = offset;
+
+        return new GazetteerIndex(keys, keyOffsets, latitudes, longitudes);
+    }
+
+    private static List<Entry> deriveCentroids(List<Entry> entries) {
+        Map<String, Centroid> explicit = new HashMap<>();
+        Map<String, Centroid> derived = new HashMap<>();
+        for (Entry entry : entries) {
+            String[] parts = entry.key().split("\\|", -1);
+            String country = parts[0];
+            String city = parts[1];
+            String postalCode = parts[2];
+            String street = parts[3];
+
+            if (street.isEmpty()) {
+                explicit.put(entry.key(), null);
+                if (!postalCode.isEmpty() && !city.isEmpty()) {
+                    // a postal code centroid also counts for the postal code alone
+                    derived.computeIfAbsent(key(country, "", postalCode, ""), k -> new Centroid()).add(entry);
+                }
+                continue;
+            }
+            if (!city.isEmpty()) {
+                derived.computeIfAbsent(key(country, city, "", ""), k -> new Centroid()).add(entry);
+            }
+            if (!postalCode.isEmpty()) {
+                derived.computeIfAbsent(key(country, city, postalCode, ""), k -> new Centroid()).add(entry);
+                derived.computeIfAbsent(key(country, "", postalCode, ""), k -> new Centroid()).add(entry);
+            }
+        }
+
+        List<Entry> centroids = new ArrayList<>();
+        derived.forEach((key, centroid) -> {
+            if (!explicit.containsKey(key)) {
+                centroids.add(centroid.toEntry(key));
+            }
+        });
+        return centroids;
+    }
+
+    private static String key(String country, String city, String postalCode, String street) {
+        return country + SEPARATOR + city + SEPARATOR + postalCode + SEPARATOR + street;
+    }
+
+    private record Entry(String key, float latitude, float longitude) {
+    }
+
+    private static final class Centroid {
+        private double latitude;
+        private double longitude;
+        private int count;
+
+        void add(Entry entry) {
+            latitude += entry.latitude();
+            longitude += entry.longitude();
+            count++;
+        }
+
+        Entry toEntry(String key) {
+            return new Entry(key, (float) (latitude / count), (float) (longitude / count));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.GymChangedEvent;
+import com.jomeerkatz.gym.domain.ReviewChangedEvent;
+import com.jomeerkatz.gym.exceptions.ServiceOverloadedException;
+import com.jomeerkatz.gym.exceptions.TooManyRequestsException;
+import com.jomeerkatz.gym.mappers.GymMapper;
+import com.jomeerkatz.gym.mappers.ReviewMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-sent events for gym and review changes, so the frontend doesn't have to poll a gym or its reviews.
+// Fed by the GymChangedEvent / ReviewChangedEvent the services publish after every write:
+// - per gym: "gym" (summary with the new rating), "gym-deleted", "review", "review-deleted"
+// - per area (circle around a point): "gym" of the gyms inside it (a deleted gym has no location anymore, so no
+//   "gym-deleted" here)
+//
+// Publishing happens on the writing thread and must not wait for clients: every subscriber has a bounded buffer and
+// its own (virtual) thread that writes it out. A subscriber whose buffer is full is too slow and gets disconnected -
+// EventSource reconnects by itself, the client then loads the current state once and gets events again.
+// A heartbeat comment every heartbeat-interval keeps proxies from closing idle connections.
+//
+// Subscriptions are limited in total (every one holds a connection) and per client, keyed like the request budgets
+// (AdmissionControl.clientKey), so one client can't take all of them.
+//
+// Area subscriptions are checked one by one for every gym event, fine for the number of subscribers we allow.
+@Component
+@Slf4j
+public class GymChangeStream implements MeterBinder {
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    private static final Message HEARTBEAT = new Message(0, null, null);
+    // a client at its limit has to close a stream first, there's no point in retrying right away
+    private static final long CLIENT_RETRY_AFTER_SECONDS = 30;
+
+    private final GymMapper gymMapper;
+    private final ReviewMapper reviewMapper;
+    private final int maxSubscribers;
+    private final int maxSubscribersPerClient;
+    private final int bufferSize;
+    private final long timeoutMillis;
+
+    private final Map<String, Set<Subscriber>> gymSubscribers = new ConcurrentHashMap<>();
+    private final List<AreaSubscriber> areaSubscribers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    // open subscriptions per client (AdmissionControl.clientKey), only clients that have one
+    private final Map<String, Integer> subscribersPerClient = new ConcurrentHashMap<>();
+    private final AtomicLong nextEventId = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    public GymChangeStream(GymMapper gymMapper,
+                           ReviewMapper reviewMapper,
+                           @Value("${app.events.max-subscribers:4000}") int maxSubscribers,
+                           @Value("${app.events.max-subscribers-per-client:20}") int maxSubscribersPerClient,
+                           @Value("${app.events.buffer-size:64}") int bufferSize,
+                           @Value("${app.events.timeout:30m}") Duration timeout) {
+        this.gymMapper = gymMapper;
+        this.reviewMapper = reviewMapper;
+        this.maxSubscribers = maxSubscribers;
+        this.maxSubscribersPerClient = maxSubscribersPerClient;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    public SseEmitter subscribeToGym(String gymId, String clientKey) {
+        Subscriber subscriber = new Subscriber(clientKey);
+        subscriber.onClose(() -> gymSubscribers.computeIfPresent(gymId, (id, subscribersOfGym) -> {
+            subscribersOfGym.remove(subscriber);
+            return subscribersOfGym.isEmpty() ? null : subscribersOfGym;
+        }));
+        // inside compute, the last unsubscribe of the gym may remove the set at the same time
+        gymSubscribers.compute(gymId, (id, subscribersOfGym) -> {
+            Set<Subscriber> subscribersOfGymOrNew = subscribersOfGym != null ? subscribersOfGym : ConcurrentHashMap.newKeySet();
+            subscribersOfGymOrNew.add(subscriber);
+            return subscribersOfGymOrNew;
+        });
+        return subscriber.start();
+    }
+
+    // radius in meters, like the search
+    public SseEmitter subscribeToArea(double latitude, double longitude, double radiusMeters, String clientKey) {
+        AreaSubscriber areaSubscriber = new AreaSubscriber(new Subscriber(clientKey), latitude, longitude, radiusMeters);
+        areaSubscriber.subscriber().onClose(() -> areaSubscribers.remove(areaSubscriber));
+        areaSubscribers.add(areaSubscriber);
+        return areaSubscriber.subscriber().start();
+    }
+
+    @EventListener
+    public void onGymChanged(GymChangedEvent event) {
+        Set<Subscriber> subscribersOfGym = gymSubscribers.get(event.gymId());
+        GeoPoint location = event.isDeleted() ? null : event.gym().getGeoLocation();
+        if (subscribersOfGym == null && (location == null || areaSubscribers.isEmpty())) {
+            return;
+        }
+
+        Message message = event.isDeleted()
+                ? new Message(nextEventId.incrementAndGet(), "gym-deleted", Map.of("gymId", event.gymId()))
+                : new Message(nextEventId.incrementAndGet(), "gym", gymMapper.toSummaryDto(event.gym()));
+        if (subscribersOfGym != null) {
+            subscribersOfGym.forEach(subscriber -> subscriber.offer(message));
+        }
+        if (location != null) {
+            for (AreaSubscriber areaSubscriber : areaSubscribers) {
+                if (areaSubscriber.contains(location)) {
+                    areaSubscriber.subscriber().offer(message);
+                }
+            }
+        }
+    }
+
+    @EventListener
+    public void onReviewChanged(ReviewChangedEvent event) {
+        Set<Subscriber> subscribersOfGym = gymSubscribers.get(event.gymId());
+        if (subscribersOfGym == null) {
+            return;
+        }
+        Message message = event.type() == ReviewChangedEvent.Type.DELETED
+                ? new Message(nextEventId.incrementAndGet(), "review-deleted",
+                        Map.of("gymId", event.gymId(), "reviewId", event.review().getId()))
+                : new Message(nextEventId.incrementAndGet(), "review", reviewMapper.toDto(event.review()));
+        subscribersOfGym.forEach(subscriber -> subscriber.offer(message));
+    }
+
+    @Scheduled(fixedRateString = "${app.events.heartbeat-interval:15s}")
+    public void heartbeat() {
+        gymSubscribers.values().forEach(subscribersOfGym -> subscribersOfGym.forEach(subscriber -> subscriber.offer(HEARTBEAT)));
+        areaSubscribers.forEach(areaSubscriber -> areaSubscriber.subscriber().offer(HEARTBEAT));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("gym.events.subscribers", subscribers, AtomicInteger::get).register(registry);
+        FunctionCounter.builder("gym.events.dropped", dropped, LongAdder::sum).register(registry);
+    }
+
+    // the same id for every subscriber of an event, HEARTBEAT has none
+    private record Message(long id, String name, Object data) {
+    }
+
+    private record AreaSubscriber(Subscriber subscriber, double latitude, double longitude, double radiusMeters) {
+        // haversine
+        boolean contains(GeoPoint location) {
+            double dLat = Math.toRadians(location.getLat() - latitude);
+            double dLon = Math.toRadians(location.getLon() - longitude);
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                    + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(location.getLat()))
+                    * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a))) <= radiusMeters;
+        }
+    }
+
+    // one connection: the emitter, its buffer and the thread that writes the buffer out
+    private final class Subscriber {
+        private final String clientKey;
+        private final SseEmitter emitter = new SseEmitter(timeoutMillis);
+        private final BlockingQueue<Message> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean tooSlow;
+        private Runnable unsubscribe = () -> {
+        };
+        private volatile Thread writer;
+
+        Subscriber(String clientKey) {
+            this.clientKey = clientKey;
+        }
+
+        // set before the subscriber is registered, so every way of closing it also unregisters it
+        void onClose(Runnable unsubscribe) {
+            this.unsubscribe = unsubscribe;
+        }
+
+        SseEmitter start() {
+            if (subscribersPerClient.merge(clientKey, 1, Integer::sum) > maxSubscribersPerClient) {
+                releaseClient();
+                closed.set(true);
+                unsubscribe.run();
+                throw new TooManyRequestsException("too many event streams for " + clientKey, CLIENT_RETRY_AFTER_SECONDS);
+            }
+            if (subscribers.incrementAndGet() > maxSubscribers) {
+                subscribers.decrementAndGet();
+                releaseClient();
+                closed.set(true);
+                unsubscribe.run();
+                throw new ServiceOverloadedException("too many event stream subscribers");
+            }
+            emitter.onCompletion(this::close);
+            emitter.onTimeout(this::close);
+            emitter.onError(error -> close());
+            writer = Thread.ofVirtual().name("gym-events").start(this::writeLoop);
+            return emitter;
+        }
+
+        // never blocks the publisher. Not even to drop the subscriber: emitter.complete() waits for the emitter's lock,
+        // which the writer holds while it is stuck in send() to exactly this client - the writer completes it instead
+        void offer(Message message) {
+            if (closed.get() || buffer.offer(message)) {
+                return;
+            }
+            log.debug("dropping slow event stream subscriber, {} events not sent", buffer.size());
+            dropped.increment();
+            tooSlow = true;
+            close();
+        }
+
+        private void writeLoop() {
+            try {
+                while (!closed.get()) {
+                    Message message = buffer.take();
+                    if (message == HEARTBEAT) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    } else {
+                        emitter.send(SseEmitter.event()
+                                .id(Long.toString(message.id()))
+                                .name(message.name())
+                                .data(message.data()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed from the outside
+            } catch (IOException | IllegalStateException e) {
+                // client went away, or the emitter is already completed
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                close();
+            }
+            // a dropped subscriber is the only way of closing that leaves the emitter open
+            if (tooSlow) {
+                emitter.complete();
+            }
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            subscribers.decrementAndGet();
+            releaseClient();
+            unsubscribe.run();
+            Thread currentWriter = writer;
+            if (currentWriter != null && currentWriter != Thread.currentThread()) {
+                currentWriter.interrupt();
+            }
+        }
+
+        private void releaseClient() {
+            subscribersPerClient.computeIfPresent(clientKey, (key, count) -> count == 1 ? null : count - 1);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.jomeerkatz.gym.services.impl;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpMapper;
+import com.jomeerkatz.gym.domain.GymExportResult;
+import com.jomeerkatz.gym.exceptions.StorageException;
+import com.jomeerkatz.gym.services.GymExportService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+@Service
+@Slf4j
+public class GymExportServiceImpl implements GymExportService {
+
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final GymIndexScanner gymIndexScanner;
+    private final JsonpMapper jsonpMapper;
+    private final Path exportDirectory;
+
+    public GymExportServiceImpl(GymIndexScanner gymIndexScanner,
+                                ElasticsearchClient elasticsearchClient,
+                                @Value("${app.export.location:exports}") String exportLocation) {
+        this.gymIndexScanner = gymIndexScanner;
+        this.jsonpMapper = elasticsearchClient._jsonpMapper();
+        this.exportDirectory = Paths.get(exportLocation);
+    }
+
+    @Override
+    public long exportGyms(OutputStream outputStream) {
+        // Slices deliver their batches in parallel, the compressed stream takes one batch at a time.
+        // A ReentrantLock instead of synchronized: the write blocks on I/O and must not pin a virtual thread.
+        ReentrantLock writeLock = new ReentrantLock();
+        try {
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 64 * 1024);
+            long gyms = gymIndexScanner.scan(batch -> {
+                // serialize outside the lock, only the write itself is serialized
+                byte[] lines = toNdjson(batch);
+                writeLock.lock();
+                try {
+                    gzipOutputStream.write(lines);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    writeLock.unlock();
+                }
+            });
+            gzipOutputStream.finish();
+            gzipOutputStream.flush();
+            return gyms;
+        } catch (IOException e) {
+            throw new StorageException("failed to write gym export", e);
+        }
+    }
+
+    @Override
+    public GymExportResult exportGymsToFile() {
+        Instant startedAt = Instant.now();
+        Path file = exportDirectory.resolve("gyms-" + FILE_TIMESTAMP.format(startedAt) + ".ndjson.gz");
+        // written under a temporary name first, so nobody picks up a half written export
+        Path tempFile = exportDirectory.resolve(file.getFileName() + ".part");
+        try {
+            Files.createDirectories(exportDirectory);
+            long gyms;
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                gyms = exportGyms(outputStream);
+            }
+            Files.move(tempFile, file);
+
+            GymExportResult result = GymExportResult.builder()
+                    .file(file.toAbsolutePath().toString())
+                    .gyms(gyms)
+                    .sizeBytes(Files.size(file))
+                    .startedAt(startedAt)
+                    .finishedAt(Instant.now())
+                    .build();
+            log.info("exported {} gyms to {} ({} bytes)", gyms, result.getFile(), result.getSizeBytes());
+            return result;
+        } catch (IOException e) {
+            throw new StorageException("failed to write gym export to " + file, e);
+        } finally {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.warn("could not delete {}", tempFile, e);
+            }
+        }
+    }
+
+    private byte[] toNdjson(List<Hit<JsonData>> batch) {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream(batch.size() * 1024);
+        for (Hit<JsonData> hit : batch) {
+            if (hit.source() == null) {
+                continue;
+            }
+            lines.writeBytes(hit.source().toJson(jsonpMapper).toString().getBytes(StandardCharsets.UTF_8));
+            lines.write('\n');
+        }
+        return lines.toByteArray();
+    }
+}
@@ -0,0 +1,146 @@
+package com.jomeerkatz.gym.services.impl;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.exceptions.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Reads the whole gyms index in a consistent snapshot: opens a point in time, splits it into slices that are read in
+// parallel, and pages through each slice with search_after. Unlike offset paging this neither gets slower with every
+// page nor hits the 10.000 result window, and documents written during the scan don't shift the pages.
+// Only one batch per slice is in memory at any time.
+// Every scan starts its own thread per slice: scans (export, search replica reconcile) may run at the same time, and a
+// slice that waits in a shared queue could start after the point in time has expired.
+@Component
+@Slf4j
+public class GymIndexScanner {
+
+    private static final String INDEX = Gym.class.getAnnotation(Document.class).indexName();
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final int slices;
+    private final int batchSize;
+    private final String keepAlive;
+
+    public GymIndexScanner(ElasticsearchClient elasticsearchClient,
+                           @Value("${app.export.slices:4}") int slices,
+                           @Value("${app.export.batch-size:1000}") int batchSize,
+                           @Value("${app.export.keep-alive:2m}") String keepAlive) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.slices = slices;
+        this.batchSize = batchSize;
+        this.keepAlive = keepAlive;
+    }
+
+    // Calls the consumer once per batch, from several threads at once (one per slice) -> it has to be thread safe.
+    // Returns the number of documents scanned.
+    public long scan(Consumer<List<Hit<JsonData>>> batchConsumer) {
+        return scan(null, batchConsumer);
+    }
+
+    // Only the given source fields, and every hit carries its _seq_no / _primary_term (e.g. to tell which documents
+    // changed since the last scan).
+    public long scan(String[] sourceIncludes, Consumer<List<Hit<JsonData>>> batchConsumer) {
+        String pointInTimeId;
+        try {
+            pointInTimeId = elasticsearchClient.openPointInTime(o -> o.index(INDEX).keepAlive(t -> t.time(keepAlive))).id();
+        } catch (IOException e) {
+            throw new StorageException("could not open point in time on index " + INDEX, e);
+        }
+
+        AtomicLong documents = new AtomicLong();
+        // one failing slice stops the others after their current batch
+        AtomicBoolean failed = new AtomicBoolean();
+        try (ExecutorService sliceThreads = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("gym-scan-slice-", 0).factory())) {
+            List<CompletableFuture<Void>> sliceScans = new ArrayList<>(slices);
+            for (int slice = 0; slice < slices; slice++) {
+                int sliceId = slice;
+                sliceScans.add(CompletableFuture.runAsync(
+                        () -> scanSlice(pointInTimeId, sliceId, sourceIncludes, batchConsumer, documents, failed),
+                        sliceThreads));
+            }
+            CompletableFuture.allOf(sliceScans.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            closePointInTime(pointInTimeId);
+        }
+        return documents.get();
+    }
+
+    private void scanSlice(String pointInTimeId, int sliceId, String[] sourceIncludes,
+                           Consumer<List<Hit<JsonData>>> batchConsumer, AtomicLong documents, AtomicBoolean failed) {
+        List<FieldValue> searchAfter = null;
+        try {
+            while (!failed.get()) {
+                SearchResponse<JsonData> response = elasticsearchClient.search(
+                        searchRequest(pointInTimeId, sliceId, sourceIncludes, searchAfter), JsonData.class);
+                List<Hit<JsonData>> hits = response.hits().hits();
+                if (hits.isEmpty()) {
+                    return;
+                }
+                batchConsumer.accept(hits);
+                documents.addAndGet(hits.size());
+                searchAfter = hits.getLast().sort();
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.set(true);
+            throw new StorageException("scan of slice " + sliceId + " of index " + INDEX + " failed", e);
+        }
+    }
+
+    private SearchRequest searchRequest(String pointInTimeId, int sliceId, String[] sourceIncludes,
+                                        List<FieldValue> searchAfter) {
+        return SearchRequest.of(s -> {
+            s.pit(p -> p.id(pointInTimeId).keepAlive(t -> t.time(keepAlive)))
+                    // _shard_doc is the cheapest possible sort and unique within a point in time
+                    .sort(sort -> sort.field(f -> f.field("_shard_doc").order(SortOrder.Asc)))
+                    .size(batchSize)
+                    .trackTotalHits(t -> t.enabled(false));
+            if (slices > 1) {
+                s.slice(slice -> slice.id(String.valueOf(sliceId)).max(slices));
+            }
+            if (sourceIncludes != null) {
+                s.source(source -> source.filter(filter -> filter.includes(List.of(sourceIncludes))))
+                        .seqNoPrimaryTerm(true);
+            }
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        });
+    }
+
+    private void closePointInTime(String pointInTimeId) {
+        try {
+            elasticsearchClient.closePointInTime(c -> c.id(pointInTimeId));
+        } catch (IOException | RuntimeException e) {
+            // not fatal, elasticsearch drops it after the keep alive anyway
+            log.warn("could not close point in time", e);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.jomeerkatz.gym.services.impl;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpMapper;
+import com.jomeerkatz.gym.domain.GymChangedEvent;
+import com.jomeerkatz.gym.domain.SearchBranch;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.domain.entities.Review;
+import com.jomeerkatz.gym.exceptions.StorageException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatPoint;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.SeqNoPrimaryTerm;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-process read replica of the gyms index for GymServiceImpl.searchGyms: the gym summaries in an in-memory lucene
+// index, a search costs no network hop (app.search.replica.enabled, off by default).
+//
+// Kept in sync two ways:
+// - every gym write publishes a GymChangedEvent, it's applied right away (gyms, reviews, deletes)
+// - every reconcile-interval the gyms index is scanned (only summary fields and _seq_no), a gym whose _seq_no differs
+//   from the one we have is indexed again, a gym that isn't in elasticsearch anymore is removed. That repairs events
+//   that were lost or applied out of order, and changes made behind the service's back.
+// A gym that came in by event keeps the _seq_no its write returned, so the reconcile leaves it alone, and an event
+// older than what we have is dropped. Searches go to elasticsearch until the first reconcile has loaded everything.
+//
+// The same branches as GymServiceImpl.searchGyms with the same queries (a search finds the same gyms whether the
+// replica is ready or not), except that geo hits are sorted nearest first.
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "app.search.replica.enabled", havingValue = "true")
+public class GymSearchReplica implements MeterBinder {
+    private static final String ID = "id";
+    private static final String NAME = "name";
+    private static final String GYM_TYPE = "gymType";
+    private static final String RATING = "averageRating";
+    private static final String LOCATION = "geoLocation";
+    private static final Set<String> ID_ONLY = Set.of(ID);
+    private static final long UNKNOWN_SEQ_NO = -1;
+
+    private final GymIndexScanner gymIndexScanner;
+    private final ElasticsearchConverter elasticsearchConverter;
+    private final JsonpMapper jsonpMapper;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final IndexWriter indexWriter;
+    private final SearcherManager searcherManager;
+
+    // lucene only finds the ids, the gyms come from here
+    private final Map<String, ReplicatedGym> gyms = new ConcurrentHashMap<>();
+    // gyms changed by an event while a reconcile runs, the scan may have seen an older version of them
+    private final Set<String> changedDuringReconcile = ConcurrentHashMap.newKeySet();
+    private final LongAdder reconciledUpdates = new LongAdder();
+    private final LongAdder reconciledDeletes = new LongAdder();
+
+    private volatile boolean ready;
+
+    public GymSearchReplica(GymIndexScanner gymIndexScanner,
+                            ElasticsearchOperations elasticsearchOperations,
+                            ElasticsearchClient elasticsearchClient) throws IOException {
+        this.gymIndexScanner = gymIndexScanner;
+        this.elasticsearchConverter = elasticsearchOperations.getElasticsearchConverter();
+        this.jsonpMapper = elasticsearchClient._jsonpMapper();
+        // standard analyzer like the elasticsearch text fields
+        this.indexWriter = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(analyzer));
+        this.searcherManager = new SearcherManager(indexWriter, null);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener
+    public void onGymChanged(GymChangedEvent event) {
+        changedDuringReconcile.add(event.gymId());
+        try {
+            if (event.isDeleted()) {
+                remove(event.gymId());
+            } else {
+                long seqNo = seqNoOf(event.gym());
+                ReplicatedGym current = gyms.get(event.gymId());
+                if (current != null && seqNo != UNKNOWN_SEQ_NO && current.seqNo() > seqNo) {
+                    // a later write of the gym got here first
+                    return;
+                }
+                index(summaryOf(event.gym()), seqNo);
+            }
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException | RuntimeException e) {
+            // the write to elasticsearch went through, the next reconcile catches up
+            log.warn("could not apply change of gym {} to the search replica", event.gymId(), e);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${app.search.replica.initial-delay:5s}",
+            fixedDelayString = "${app.search.replica.reconcile-interval:1m}")
+    public void reconcile() {
+        changedDuringReconcile.clear();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        try {
+            long scanned = gymIndexScanner.scan(GymServiceImpl.SUMMARY_FIELDS_WITH_LOCATION, batch -> {
+                reconcileBatch(batch, seen);
+                refresh();
+            });
+            for (String id : gyms.keySet()) {
+                if (!seen.contains(id) && !changedDuringReconcile.contains(id)) {
+                    remove(id);
+                    reconciledDeletes.increment();
+                }
+            }
+            searcherManager.maybeRefreshBlocking();
+            if (!ready) {
+                log.info("search replica loaded with {} gyms", scanned);
+            }
+            ready = true;
+        } catch (IOException | RuntimeException e) {
+            // until the next run we serve what we have (or elasticsearch, if we never got ready)
+            log.warn("could not reconcile the search replica with elasticsearch", e);
+        }
+    }
+
+    // called from several scan slices at once
+    private void reconcileBatch(List<Hit<JsonData>> batch, Set<String> seen) {
+        for (Hit<JsonData> hit : batch) {
+            seen.add(hit.id());
+            ReplicatedGym current = gyms.get(hit.id());
+            long seqNo = hit.seqNo() != null ? hit.seqNo() : UNKNOWN_SEQ_NO;
+            if (changedDuringReconcile.contains(hit.id()) || (current != null && current.seqNo() == seqNo)) {
+                continue;
+            }
+            try {
+                index(read(hit), seqNo);
+                reconciledUpdates.increment();
+            } catch (IOException e) {
+                throw new StorageException("could not index gym " + hit.id() + " in the search replica", e);
+            }
+        }
+    }
+
+    public Page<Gym> searchGyms(String query, Float minRating, Float latitude, Float longitude, Float radius,
+                                Pageable pageable) {
+        float searchMinRating = minRating == null ? 0f : minRating;
+        Query luceneQuery;
+        Sort sort = null;
+        switch (SearchBranch.of(query, minRating, latitude, longitude, radius)) {
+            case RATING -> luceneQuery = FloatPoint.newRangeQuery(RATING, searchMinRating, Float.POSITIVE_INFINITY);
+            case TEXT -> luceneQuery = textQuery(query, searchMinRating);
+            case GEO -> {
+                // elasticsearch reads the radius without unit as meters, so do we
+                luceneQuery = LatLonPoint.newDistanceQuery(LOCATION, latitude, longitude, radius);
+                sort = new Sort(LatLonDocValuesField.newDistanceSort(LOCATION, latitude, longitude));
+            }
+            default -> luceneQuery = new MatchAllDocsQuery();
+        }
+
+        int offset = (int) Math.min(pageable.getOffset(), Integer.MAX_VALUE - pageable.getPageSize());
+        int numHits = offset + pageable.getPageSize();
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                // exact total hit count, like elasticsearch reports it to the page
+                TopDocs topDocs = sort == null
+                        ? searcher.search(luceneQuery, new TopScoreDocCollectorManager(numHits, Integer.MAX_VALUE))
+                        : searcher.search(luceneQuery, new TopFieldCollectorManager(sort, numHits, Integer.MAX_VALUE));
+                StoredFields storedFields = searcher.storedFields();
+                List<Gym> content = new ArrayList<>(pageable.getPageSize());
+                for (int i = offset; i < topDocs.scoreDocs.length; i++) {
+                    ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                    ReplicatedGym gym = gyms.get(storedFields.document(scoreDoc.doc, ID_ONLY).get(ID));
+                    // removed since the searcher was opened
+                    if (gym != null) {
+                        content.add(gym.gym());
+                    }
+                }
+                return new PageImpl<>(content, pageable, topDocs.totalHits.value());
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new StorageException("search on the search replica failed", e);
+        }
+    }
+
+    // what findByQueryAndMinRating does: the whole query as one term, fuzzy (AUTO) on name or gym type. Like a
+    // fuzzy query in elasticsearch the term isn't analyzed, so "iron gym" finds nothing on either path
+    private Query textQuery(String query, float minRating) {
+        int length = query.codePointCount(0, query.length());
+        int maxEdits = length <= 2 ? 0 : length <= 5 ? 1 : 2;
+        BooleanQuery.Builder textQuery = new BooleanQuery.Builder()
+                .add(new FuzzyQuery(new Term(NAME, query), maxEdits), BooleanClause.Occur.SHOULD)
+                .add(new FuzzyQuery(new Term(GYM_TYPE, query), maxEdits), BooleanClause.Occur.SHOULD);
+        return new BooleanQuery.Builder()
+                .add(FloatPoint.newRangeQuery(RATING, minRating, Float.POSITIVE_INFINITY), BooleanClause.Occur.FILTER)
+                .add(textQuery.build(), BooleanClause.Occur.MUST)
+                .build();
+    }
+
+    private void index(Gym gym, long seqNo) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(ID, gym.getId(), Field.Store.YES));
+        if (gym.getName() != null) {
+            document.add(new TextField(NAME, gym.getName(), Field.Store.NO));
+        }
+        if (gym.getGymType() != null) {
+            document.add(new TextField(GYM_TYPE, gym.getGymType(), Field.Store.NO));
+        }
+        if (gym.getAverageRating() != null) {
+            document.add(new FloatPoint(RATING, gym.getAverageRating()));
+        }
+        GeoPoint location = gym.getGeoLocation();
+        if (location != null) {
+            document.add(new LatLonPoint(LOCATION, location.getLat(), location.getLon()));
+            document.add(new LatLonDocValuesField(LOCATION, location.getLat(), location.getLon()));
+        }
+        gyms.put(gym.getId(), new ReplicatedGym(gym, seqNo));
+        indexWriter.updateDocument(new Term(ID, gym.getId()), document);
+    }
+
+    private void remove(String id) throws IOException {
+        indexWriter.deleteDocuments(new Term(ID, id));
+        gyms.remove(id);
+    }
+
+    private void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            throw new StorageException("could not refresh the search replica", e);
+        }
+    }
+
+    // the source filtered to the summary fields, mapped the way spring data maps every other read
+    private Gym read(Hit<JsonData> hit) {
+        org.springframework.data.elasticsearch.core.document.Document source =
+                org.springframework.data.elasticsearch.core.document.Document.parse(
+                        hit.source().toJson(jsonpMapper).toString());
+        source.setId(hit.id());
+        Gym gym = elasticsearchConverter.read(Gym.class, source);
+        gym.setId(hit.id());
+        return gym;
+    }
+
+    private static long seqNoOf(Gym gym) {
+        SeqNoPrimaryTerm seqNoPrimaryTerm = gym.getSeqNoPrimaryTerm();
+        return seqNoPrimaryTerm != null ? seqNoPrimaryTerm.sequenceNumber() : UNKNOWN_SEQ_NO;
+    }
+
+    // only what a search result needs, of the reviews only the ids (they are counted), like a scanned gym
+    private static Gym summaryOf(Gym gym) {
+        List<Review> reviewIds = gym.getReviews() == null ? List.of() : gym.getReviews().stream()
+                .map(review -> Review.builder().id(review.getId()).build())
+                .toList();
+        return Gym.builder()
+                .id(gym.getId())
+                .name(gym.getName())
+                .gymType(gym.getGymType())
+                .averageRating(gym.getAverageRating())
+                .totalReviews(gym.getTotalReviews())
+                .geoLocation(gym.getGeoLocation())
+                .address(gym.getAddress())
+                .photos(gym.getPhotos())
+                .reviews(reviewIds)
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("gym.search.replica.documents", gyms, Map::size).register(registry);
+        FunctionCounter.builder("gym.search.replica.reconciled", reconciledUpdates, LongAdder::sum).tag("result", "updated").register(registry);
+        FunctionCounter.builder("gym.search.replica.reconciled", reconciledDeletes, LongAdder::sum).tag("result", "deleted").register(registry);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        searcherManager.close();
+        indexWriter.close();
+        analyzer.close();
+    }
+
+    private record ReplicatedGym(Gym gym, long seqNo) {
+    }
+}
@@ -1,42 +1,112 @@
 package com.jomeerkatz.gym.services.impl;
 
 import com.jomeerkatz.gym.domain.GeoLocation;
+import com.jomeerkatz.gym.domain.GymChangedEvent;
+import com.jomeerkatz.gym.domain.GymCreateResult;
 import com.jomeerkatz.gym.domain.GymCreateUpdateRequest;
+import com.jomeerkatz.gym.domain.SearchBranch;
 import com.jomeerkatz.gym.domain.entities.Address;
 import com.jomeerkatz.gym.domain.entities.Gym;
 import com.jomeerkatz.gym.domain.entities.Photo;
 import com.jomeerkatz.gym.exceptions.GymNotFoundException;
 import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.repositories.UserReviewRepository;
 import com.jomeerkatz.gym.services.GeoLocationService;
 import com.jomeerkatz.gym.services.GymService;
+import com.jomeerkatz.gym.services.PhotoService;
 import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 @AllArgsConstructor
 public class GymServiceImpl implements GymService {
+    // everything GymMapper.toSummaryDto needs; of the reviews only the ids are loaded, they are just counted
+    static final String[] SUMMARY_FIELDS = {
+            "id", "name", "gymType", "averageRating", "totalReviews", "address", "photos", "reviews.id"
+    };
+    // plus the location, for the local copies that filter by distance themselves (GymSummarySnapshot, GymSearchReplica)
+    static final String[] SUMMARY_FIELDS_WITH_LOCATION = withGeoLocation(SUMMARY_FIELDS);
+
     private final GymRepository gymRepository;
     private final GeoLocationService geoLocationService;
+    private final PhotoService photoService;
+    private final UserReviewRepository userReviewRepository;
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final ApplicationEventPublisher eventPublisher;
+    // gym edits go through the same writer as the review writes, otherwise the full save of an edit overwrites
+    // reviews saved in between
+    private final GymWriteCoalescer gymWriteCoalescer;
+    // optional in-process search index, see GymSearchReplica
+    private final ObjectProvider<GymSearchReplica> searchReplica;
 
     @Override
     public Gym createGym(GymCreateUpdateRequest request) {
         Address address = request.getAddress();
-        GeoLocation geoLocation = geoLocationService.geoLocate(address); // random location in hamburg
+        GeoLocation geoLocation = geoLocationService.geoLocate(address);
+        List<Photo> photos = photoService.resolvePhotos(request.getPhotoIds());
+        Gym savedGym = gymRepository.save(toNewGym(request, geoLocation, photos));
+        eventPublisher.publishEvent(GymChangedEvent.saved(savedGym));
+        return savedGym;
+    }
+
+    @Override
+    public List<GymCreateResult> createGyms(List<GymCreateUpdateRequest> requests) {
+        List<GeoLocation> geoLocations = geoLocationService.geoLocateAll(
+                requests.stream().map(GymCreateUpdateRequest::getAddress).toList());
+
+        // one metadata lookup for the photos of all gyms instead of one per gym
+        List<String> photoIds = requests.stream().flatMap(request -> request.getPhotoIds().stream()).toList();
+        Map<String, Photo> photosById = new HashMap<>();
+        photoService.resolvePhotos(photoIds).forEach(photo -> photosById.put(photo.getUrl(), photo));
+
+        // a gym whose address can't be located doesn't stop the import, it's reported with its index instead
+        GymCreateResult[] results = new GymCreateResult[requests.size()];
+        List<Integer> indexes = new ArrayList<>(requests.size());
+        List<Gym> gyms = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            GymCreateUpdateRequest request = requests.get(i);
+            GeoLocation geoLocation = geoLocations.get(i);
+            if (geoLocation == null) {
+                results[i] = GymCreateResult.builder().index(i).error("address could not be located").build();
+                continue;
+            }
+            List<Photo> photos = request.getPhotoIds().stream().map(photosById::get).toList();
+            indexes.add(i);
+            gyms.add(toNewGym(request, geoLocation, photos));
+        }
+
+        if (!gyms.isEmpty()) {
+            int saved = 0;
+            for (Gym savedGym : gymRepository.saveAll(gyms)) {
+                int index = indexes.get(saved++);
+                results[index] = GymCreateResult.builder().index(index).gym(savedGym).build();
+                eventPublisher.publishEvent(GymChangedEvent.saved(savedGym));
+            }
+        }
+        return List.of(results);
+    }
+
+    private Gym toNewGym(GymCreateUpdateRequest request, GeoLocation geoLocation, List<Photo> photos) {
         GeoPoint geoPoint = new GeoPoint(geoLocation.getLatitude(), geoLocation.getLongitute());
-        List<String> photos = request.getPhotoIds();
-        List<Photo> photoList = photos.stream().map(currentPhoto ->
-                Photo.builder().url(currentPhoto).uploadDate(LocalDateTime.now()).build()).toList();
 
-        Gym gym = Gym.builder()
-                .address(address)
+        return Gym.builder()
+                .address(request.getAddress())
                 .name(request.getName())
                 .contactInformation(request.getContactInformation())
                 .geoLocation(geoPoint)
@@ -45,30 +115,26 @@ public class GymServiceImpl implements GymService {
                 .averageRating(0F)
                 .totalReviews(0)
                 .reviews(Collections.emptyList())
-                .photos(photoList)
+                .photos(photos)
                 .build();
-
-        return gymRepository.save(gym);
     }
 
     @Override
     // multiple arguments, all can be null - only pageable not
     public Page<Gym> searchGyms(String query, Float minRating, Float latitude, Float longitude, Float radius, Pageable pageable) {
-        if (null != minRating && (null == query || query.isEmpty())) {
-            return gymRepository.findByAverageRatingGreaterThanEqual(minRating, pageable);
+        GymSearchReplica replica = searchReplica.getIfAvailable();
+        if (replica != null && replica.isReady()) {
+            return replica.searchGyms(query, minRating, latitude, longitude, radius, pageable);
         }
 
         Float searchMinRating = minRating == null ? 0f : minRating;
 
-        if (null != query && !query.trim().isEmpty()) {
-            return gymRepository.findByQueryAndMinRating(query, searchMinRating, pageable);
-        }
-
-        if (null != latitude && null != longitude && null != radius) {
-            return gymRepository.findByLocationNear(latitude, longitude, radius, pageable);
-        }
-
-        return gymRepository.findAll(pageable);
+        return switch (SearchBranch.of(query, minRating, latitude, longitude, radius)) {
+            case RATING -> gymRepository.findByAverageRatingGreaterThanEqual(minRating, pageable);
+            case TEXT -> gymRepository.findByQueryAndMinRating(query, searchMinRating, pageable);
+            case GEO -> gymRepository.findByLocationNear(latitude, longitude, radius, pageable);
+            case ALL -> gymRepository.findAll(pageable);
+        };
     }
 
     @Override
@@ -76,35 +142,58 @@ public class GymServiceImpl implements GymService {
         return gymRepository.findById(id);
     }
 
+    @Override
+    public List<Optional<Gym>> getGymSummaries(List<String> ids) {
+        // one _mget instead of one get per gym, the items come back in the order of the ids
+        NativeQuery query = NativeQuery.builder()
+                .withIds(ids)
+                .withSourceFilter(FetchSourceFilter.of(b -> b.withIncludes(SUMMARY_FIELDS)))
+                .build();
+
+        return elasticsearchOperations.multiGet(query, Gym.class)
+                .stream()
+                .map(item -> item.hasItem() ? Optional.of(item.getItem()) : Optional.<Gym>empty())
+                .toList();
+    }
+
     @Override
     public void deleteGym(String id) {
         gymRepository.deleteById(id);
+        eventPublisher.publishEvent(GymChangedEvent.deleted(id));
+        userReviewRepository.deleteByGymId(id);
     }
 
     @Override
     public Gym updateGym(String id, GymCreateUpdateRequest request) {
         Gym gym = getGym(id).orElseThrow(() -> new GymNotFoundException("gym doesn't exists with id " + id));
 
-        GeoLocation geoLocation = geoLocationService.geoLocate(request.getAddress());
-
-        GeoPoint geoPoint = new GeoPoint(geoLocation.getLatitude(), geoLocation.getLongitute());
-
-        List<String> photoIds = request.getPhotoIds();
-
-        List<Photo> photos = photoIds.stream().map(currentPhoto -> Photo.builder()
-                .url(currentPhoto)
-                .uploadDate(LocalDateTime.now())
-                .build()
-        ).toList();
-
-        gym.setName(request.getName());
-        gym.setGymType(request.getGymType());
-        gym.setContactInformation(request.getContactInformation());
-        gym.setAddress(request.getAddress());
-        gym.setGeoLocation(geoPoint);
-        gym.setOperatingHours(request.getOperatingHours());
-        gym.setPhotos(photos);
+        // the slow parts before the write: geocoding and the photo lookup
+        // most edits don't touch the address (name, opening hours, photos) -> keep the location we already have
+        GeoPoint geoPoint = gym.getGeoLocation();
+        if (geoPoint == null || !request.getAddress().equals(gym.getAddress())) {
+            GeoLocation geoLocation = geoLocationService.geoLocate(request.getAddress());
+            geoPoint = new GeoPoint(geoLocation.getLatitude(), geoLocation.getLongitute());
+        }
+        GeoPoint newGeoPoint = geoPoint;
+
+        List<Photo> photos = photoService.resolvePhotos(request.getPhotoIds());
+
+        // applied to the current version of the gym, saved (and published) by the writer
+        return gymWriteCoalescer.apply(id, currentGym -> {
+            currentGym.setName(request.getName());
+            currentGym.setGymType(request.getGymType());
+            currentGym.setContactInformation(request.getContactInformation());
+            currentGym.setAddress(request.getAddress());
+            currentGym.setGeoLocation(newGeoPoint);
+            currentGym.setOperatingHours(request.getOperatingHours());
+            currentGym.setPhotos(photos);
+            return currentGym;
+        });
+    }
 
-        return gymRepository.save(gym);
+    private static String[] withGeoLocation(String[] fields) {
+        String[] withGeoLocation = Arrays.copyOf(fields, fields.length + 1);
+        withGeoLocation[fields.length] = "geoLocation";
+        return withGeoLocation;
     }
 }
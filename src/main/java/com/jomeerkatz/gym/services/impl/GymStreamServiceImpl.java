@@ -0,0 +1,70 @@
+package com.jomeerkatz.gym.services.impl;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.services.GymStreamService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ReactiveElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+@Service
+public class GymStreamServiceImpl implements GymStreamService {
+
+    private final ReactiveElasticsearchOperations reactiveElasticsearchOperations;
+    private final int batchSize;
+
+    public GymStreamServiceImpl(ReactiveElasticsearchOperations reactiveElasticsearchOperations,
+                                @Value("${app.gym-stream.batch-size:500}") int batchSize) {
+        this.reactiveElasticsearchOperations = reactiveElasticsearchOperations;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public Flux<Gym> streamGyms(String query, Float minRating, Float latitude, Float longitude, Float radius) {
+        // no pageable -> the reactive template scrolls through all hits, batchSize documents per round trip, and
+        // only fetches the next batch when the subscriber asked for more
+        NativeQuery searchQuery = NativeQuery.builder()
+                .withQuery(toQuery(query, minRating, latitude, longitude, radius))
+                .withSourceFilter(FetchSourceFilter.of(b -> b.withIncludes(GymServiceImpl.SUMMARY_FIELDS)))
+                .withReactiveBatchSize(batchSize)
+                .build();
+
+        return reactiveElasticsearchOperations.search(searchQuery, Gym.class).map(SearchHit::getContent);
+    }
+
+    // the same branches as GymServiceImpl.searchGyms and the queries in GymRepository
+    private static Query toQuery(String query, Float minRating, Float latitude, Float longitude, Float radius) {
+        boolean hasQuery = null != query && !query.trim().isEmpty();
+
+        if (null != minRating && !hasQuery) {
+            return minRatingQuery(minRating);
+        }
+
+        float searchMinRating = minRating == null ? 0f : minRating;
+
+        if (hasQuery) {
+            return Query.of(q -> q.bool(b -> b
+                    .must(minRatingQuery(searchMinRating))
+                    .should(s -> s.fuzzy(f -> f.field("name").value(query).fuzziness("AUTO")))
+                    .should(s -> s.fuzzy(f -> f.field("gymType").value(query).fuzziness("AUTO")))
+                    .minimumShouldMatch("1")));
+        }
+
+        if (null != latitude && null != longitude && null != radius) {
+            return Query.of(q -> q.geoDistance(g -> g
+                    .field("geoLocation")
+                    .distance(String.valueOf(radius))
+                    .location(l -> l.latlon(point -> point.lat(latitude).lon(longitude)))));
+        }
+
+        return Query.of(q -> q.matchAll(m -> m));
+    }
+
+    private static Query minRatingQuery(float minRating) {
+        return Query.of(q -> q.range(r -> r.number(n -> n.field("averageRating").gte((double) minRating))));
+    }
+}
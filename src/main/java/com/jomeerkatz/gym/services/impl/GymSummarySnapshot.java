@@ -0,0 +1,497 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.SearchBranch;
+import com.jomeerkatz.gym.domain.entities.Address;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.domain.entities.Photo;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.geo.GeoPoint;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+// Degraded mode: a local copy of every gym summary, so searches and gym details still answer (with slightly old data)
+// while elasticsearch is down or too slow. GymController falls back to it, see there.
+//
+// The copy is one binary file, refreshed from elasticsearch every refresh-interval and memory-mapped - it doesn't
+// take heap, survives restarts (mapped again on startup, usable before elasticsearch is even reachable) and the page
+// cache keeps the hot parts in memory.
+//
+//   header  magic, version, created at (epoch millis), gym count, index offset
+//   records per gym, sorted by id: id, name, gymType, address, photos (length prefixed UTF-8, -1 for null)
+//   index   one fixed size entry per gym, same order: lat, lon, rating, review count, record offset
+//
+// A refresh doesn't take heap either: the gyms are scrolled in id order and streamed into the file, the index entries
+// into a second file that is appended at the end. The review count is the gym's totalReviews (kept up to date by the
+// review writes), so the reviews aren't loaded at all.
+//
+// Rating and geo filters only read the index, text filters also the first strings of a record, and only the gyms of
+// the requested page are decoded completely. A refresh writes a new file next to the old one and moves it over it,
+// requests still reading the old mapping aren't disturbed.
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "app.snapshot.enabled", havingValue = "true")
+public class GymSummarySnapshot implements MeterBinder {
+    private static final int MAGIC = 0x47594d53; // "GYMS"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 28;
+    private static final int INDEX_ENTRY_BYTES = 28;
+    private static final int NO_VALUE = -1;
+    private static final int SCROLL_BATCH_SIZE = 500;
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    // the summary fields plus the location for the geo filter, without the review ids (totalReviews is enough here)
+    private static final String[] SNAPSHOT_FIELDS = Arrays.stream(GymServiceImpl.SUMMARY_FIELDS_WITH_LOCATION)
+            .filter(field -> !field.startsWith("reviews"))
+            .toArray(String[]::new);
+
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final Path file;
+    private final LongAdder searchFallbacks = new LongAdder();
+    private final LongAdder detailFallbacks = new LongAdder();
+
+    private volatile Snapshot current;
+
+    public GymSummarySnapshot(ElasticsearchOperations elasticsearchOperations,
+                              @Value("${app.snapshot.path}") Path file) {
+        // relative would depend on the directory the app happens to be started in
+        if (!file.isAbsolute()) {
+            throw new IllegalArgumentException("app.snapshot.path must be an absolute path, got " + file);
+        }
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.file = file;
+        if (Files.exists(this.file)) {
+            try {
+                current = map(this.file);
+                log.info("mapped gym snapshot {} with {} gyms from {}", this.file, current.count(), current.createdAt());
+            } catch (IOException | RuntimeException e) {
+                // a broken snapshot is replaced by the next refresh
+                log.warn("could not map gym snapshot {}", this.file, e);
+            }
+        }
+    }
+
+    public boolean isAvailable() {
+        return current != null;
+    }
+
+    // only valid if isAvailable()
+    public Instant createdAt() {
+        return current.createdAt();
+    }
+
+    @Scheduled(initialDelayString = "${app.snapshot.initial-delay:30s}",
+            fixedDelayString = "${app.snapshot.refresh-interval:5m}")
+    public void refresh() {
+        try {
+            int count = writeSnapshot();
+            current = map(file);
+            log.info("gym snapshot refreshed with {} gyms", count);
+        } catch (IOException | RuntimeException e) {
+            // elasticsearch down is exactly when the snapshot is needed -> keep the one we have
+            log.warn("could not refresh gym snapshot, keeping the one from {}",
+                    current != null ? current.createdAt() : "never", e);
+        }
+    }
+
+    // the same branches as GymServiceImpl.searchGyms, text matching is a case insensitive "contains" instead of fuzzy,
+    // the radius is read the way elasticsearch reads it (meters). Without a relevance score the hits come in id order,
+    // geo searches nearest first.
+    public Page<Gym> searchGyms(String query, Float minRating, Float latitude, Float longitude, Float radius,
+                                Pageable pageable) {
+        searchFallbacks.increment();
+        Snapshot snapshot = current;
+        SearchBranch branch = SearchBranch.of(query, minRating, latitude, longitude, radius);
+        String text = branch == SearchBranch.TEXT ? query.trim().toLowerCase(Locale.ROOT) : null;
+        float searchMinRating = minRating == null ? 0f : minRating;
+
+        List<Integer> matches = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            switch (branch) {
+                case RATING -> {
+                    if (snapshot.rating(i) >= searchMinRating) {
+                        matches.add(i);
+                    }
+                }
+                case TEXT -> {
+                    if (snapshot.rating(i) >= searchMinRating && snapshot.matchesText(i, text)) {
+                        matches.add(i);
+                    }
+                }
+                case GEO -> {
+                    double distance = snapshot.distanceMeters(i, latitude, longitude);
+                    if (distance <= radius) {
+                        matches.add(i);
+                        distances.add(distance);
+                    }
+                }
+                case ALL -> matches.add(i);
+            }
+        }
+        if (branch == SearchBranch.GEO) {
+            Integer[] order = new Integer[matches.size()];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingDouble(distances::get));
+            List<Integer> sorted = new ArrayList<>(order.length);
+            for (Integer position : order) {
+                sorted.add(matches.get(position));
+            }
+            matches = sorted;
+        }
+
+        int from = (int) Math.min(pageable.getOffset(), matches.size());
+        int to = Math.min(from + pageable.getPageSize(), matches.size());
+        List<Gym> content = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            content.add(snapshot.gym(matches.get(i)));
+        }
+        return new PageImpl<>(content, pageable, matches.size());
+    }
+
+    public Optional<Gym> getGym(String id) {
+        detailFallbacks.increment();
+        Snapshot snapshot = current;
+        int position = snapshot.find(id);
+        return position < 0 ? Optional.empty() : Optional.of(snapshot.gym(position));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gym.snapshot.fallbacks", searchFallbacks, LongAdder::sum).tag("operation", "search").register(registry);
+        FunctionCounter.builder("gym.snapshot.fallbacks", detailFallbacks, LongAdder::sum).tag("operation", "detail").register(registry);
+        Gauge.builder("gym.snapshot.age", this, snapshot -> snapshot.isAvailable()
+                        ? (System.currentTimeMillis() - snapshot.createdAt().toEpochMilli()) / 1000.0 : Double.NaN)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private int writeSnapshot() throws IOException {
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.matchAll(m -> m))
+                .withSourceFilter(FetchSourceFilter.of(filter -> filter.withIncludes(SNAPSHOT_FIELDS)))
+                // sorted by id -> a detail read is a binary search
+                .withPageable(PageRequest.of(0, SCROLL_BATCH_SIZE, Sort.by(Sort.Direction.ASC, "id")))
+                .build();
+
+        try (SearchHitsIterator<Gym> hits = elasticsearchOperations.searchForStream(query, Gym.class)) {
+            return write(hits);
+        }
+    }
+
+    private int write(Iterator<SearchHit<Gym>> hits) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Path indexFile = file.resolveSibling(file.getFileName() + ".index.tmp");
+
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+             FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                     StandardOpenOption.DELETE_ON_CLOSE)) {
+            // the records behind the space for the header, their index entries into the index file
+            channel.position(HEADER_BYTES);
+            DataOutputStream records = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            DataOutputStream index = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(indexChannel), 64 * 1024));
+            String previousId = null;
+            while (hits.hasNext()) {
+                Gym gym = hits.next().getContent();
+                // find() compares with String.compareTo, elasticsearch must have sorted the same way
+                if (previousId != null && previousId.compareTo(gym.getId()) >= 0) {
+                    throw new IOException("gyms didn't come in id order: " + previousId + ", " + gym.getId());
+                }
+                previousId = gym.getId();
+
+                long offset = HEADER_BYTES + records.size();
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("gym snapshot would be larger than 2 GB");
+                }
+                GeoPoint location = gym.getGeoLocation();
+                index.writeDouble(location != null ? location.getLat() : Double.NaN);
+                index.writeDouble(location != null ? location.getLon() : Double.NaN);
+                index.writeFloat(gym.getAverageRating() != null ? gym.getAverageRating() : 0f);
+                index.writeInt(gym.getTotalReviews() != null ? gym.getTotalReviews() : 0);
+                index.writeInt((int) offset);
+                writeRecord(records, gym);
+                count++;
+            }
+            records.flush();
+            index.flush();
+
+            long indexOffset = HEADER_BYTES + (long) records.size();
+            if (indexOffset + indexChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("gym snapshot would be larger than 2 GB");
+            }
+            long copied = 0;
+            while (copied < indexChannel.size()) {
+                copied += indexChannel.transferTo(copied, indexChannel.size() - copied, channel);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(count).putLong(indexOffset);
+            channel.write(header.flip(), 0);
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return count;
+    }
+
+    private static void writeRecord(DataOutputStream out, Gym gym) throws IOException {
+        writeString(out, gym.getId());
+        writeString(out, gym.getName());
+        writeString(out, gym.getGymType());
+        Address address = gym.getAddress();
+        out.writeBoolean(address != null);
+        if (address != null) {
+            writeString(out, address.getStreetNumber());
+            writeString(out, address.getStreetName());
+            writeString(out, address.getUnit());
+            writeString(out, address.getCity());
+            writeString(out, address.getState());
+            writeString(out, address.getPostalCode());
+            writeString(out, address.getCountry());
+        }
+        List<Photo> photos = gym.getPhotos() != null ? gym.getPhotos() : List.of();
+        out.writeInt(photos.size());
+        for (Photo photo : photos) {
+            writeString(out, photo.getUrl());
+            writeString(out, photo.getUploadDate() != null ? photo.getUploadDate().toString() : null);
+            out.writeLong(photo.getWidth() != null ? photo.getWidth() : NO_VALUE);
+            out.writeLong(photo.getHeight() != null ? photo.getHeight() : NO_VALUE);
+            out.writeLong(photo.getSizeBytes() != null ? photo.getSizeBytes() : NO_VALUE);
+            writeString(out, photo.getMimeType());
+            writeString(out, photo.getPlaceholder());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NO_VALUE);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Snapshot map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("not a gym snapshot (version " + VERSION + "): " + file);
+            }
+            int count = buffer.getInt(16);
+            long indexOffset = buffer.getLong(20);
+            if (indexOffset < HEADER_BYTES || indexOffset + (long) count * INDEX_ENTRY_BYTES > buffer.capacity()) {
+                throw new IOException("gym snapshot is truncated: " + file);
+            }
+            return new Snapshot(buffer, Instant.ofEpochMilli(buffer.getLong(8)), count, (int) indexOffset);
+        }
+    }
+
+    // Read only view of one mapped file. Only absolute gets, the buffer position is never touched -> safe to share
+    // between threads.
+    private record Snapshot(ByteBuffer buffer, Instant createdAt, int count, int indexOffset) {
+
+        private int entry(int position) {
+            return indexOffset + position * INDEX_ENTRY_BYTES;
+        }
+
+        double lat(int position) {
+            return buffer.getDouble(entry(position));
+        }
+
+        double lon(int position) {
+            return buffer.getDouble(entry(position) + 8);
+        }
+
+        float rating(int position) {
+            return buffer.getFloat(entry(position) + 16);
+        }
+
+        int totalReviews(int position) {
+            return buffer.getInt(entry(position) + 20);
+        }
+
+        int recordOffset(int position) {
+            return buffer.getInt(entry(position) + 24);
+        }
+
+        // haversine, gyms without location are never in range
+        double distanceMeters(int position, double latitude, double longitude) {
+            double lat = lat(position);
+            if (Double.isNaN(lat)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double dLat = Math.toRadians(lat - latitude);
+            double dLon = Math.toRadians(lon(position) - longitude);
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                    + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(lat))
+                    * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+        }
+
+        // name or gym type contains the text, both are the first strings after the id
+        boolean matchesText(int position, String text) {
+            Reader reader = new Reader(buffer, recordOffset(position));
+            reader.skipString();
+            return contains(reader.readString(), text) || contains(reader.readString(), text);
+        }
+
+        private static boolean contains(String value, String text) {
+            return value != null && value.toLowerCase(Locale.ROOT).contains(text);
+        }
+
+        // binary search over the ids, -1 if the gym isn't in the snapshot
+        int find(String id) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = new Reader(buffer, recordOffset(middle)).readString().compareTo(id);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        // only the summary fields (and the location) are filled, totalReviews instead of the reviews
+        Gym gym(int position) {
+            Reader reader = new Reader(buffer, recordOffset(position));
+            Gym gym = Gym.builder()
+                    .id(reader.readString())
+                    .name(reader.readString())
+                    .gymType(reader.readString())
+                    .averageRating(rating(position))
+                    .totalReviews(totalReviews(position))
+                    .geoLocation(Double.isNaN(lat(position)) ? null : new GeoPoint(lat(position), lon(position)))
+                    .reviews(List.of())
+                    .build();
+            if (reader.readBoolean()) {
+                gym.setAddress(Address.builder()
+                        .streetNumber(reader.readString())
+                        .streetName(reader.readString())
+                        .unit(reader.readString())
+                        .city(reader.readString())
+                        .state(reader.readString())
+                        .postalCode(reader.readString())
+                        .country(reader.readString())
+                        .build());
+            }
+            int photoCount = reader.readInt();
+            List<Photo> photos = new ArrayList<>(photoCount);
+            for (int i = 0; i < photoCount; i++) {
+                String url = reader.readString();
+                String uploadDate = reader.readString();
+                photos.add(Photo.builder()
+                        .url(url)
+                        .uploadDate(uploadDate != null ? LocalDateTime.parse(uploadDate) : null)
+                        .width(reader.readOptionalInt())
+                        .height(reader.readOptionalInt())
+                        .sizeBytes(reader.readOptionalLong())
+                        .mimeType(reader.readString())
+                        .placeholder(reader.readString())
+                        .build());
+            }
+            gym.setPhotos(photos);
+            return gym;
+        }
+    }
+
+    // sequential reads of one record, with absolute gets on the shared buffer
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        private Reader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        boolean readBoolean() {
+            return buffer.get(position++) != 0;
+        }
+
+        Integer readOptionalInt() {
+            Long value = readOptionalLong();
+            return value != null ? value.intValue() : null;
+        }
+
+        Long readOptionalLong() {
+            long value = buffer.getLong(position);
+            position += 8;
+            return value != NO_VALUE ? value : null;
+        }
+
+        String readString() {
+            int length = readInt();
+            if (length == NO_VALUE) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(position, bytes);
+            position += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void skipString() {
+            int length = readInt();
+            if (length != NO_VALUE) {
+                position += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.config.Bulkheads;
+import com.jomeerkatz.gym.config.OperationDeadline;
+import com.jomeerkatz.gym.domain.GymChangedEvent;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.exceptions.GymNotFoundException;
+import com.jomeerkatz.gym.exceptions.OperationTimeoutException;
+import com.jomeerkatz.gym.repositories.GymRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// Reviews live inside the gym document, so every review write is "load the whole gym, change it, save the whole gym".
+// With many people reviewing the same gym at once that's a lot of full document rewrites racing each other (and the
+// last save wins, reviews written in between are lost).
+//
+// Here mutations of the same gym are funneled through one writer: callers queue their mutation, the first caller of
+// a lane becomes its writer, waits a short window so more mutations can pile up, then loads each gym once, applies
+// its mutations in arrival order and saves it once. After that batch it hands the writer role to the next waiting
+// caller of the lane. Every caller gets back its own result (or its own exception), and waits for it no longer than
+// its own deadline.
+// The lanes are striped by gym id, so the number of lanes stays fixed no matter how many gyms there are.
+//
+// A mutation that throws must not have changed the gym before throwing (validate first, then mutate) - the other
+// mutations of the batch are still saved. A mutation may run more than once: when the save conflicts with a write that
+// didn't go through here (a delete, another instance), the batch is applied again to the gym as it is now.
+@Component
+@Slf4j
+public class GymWriteCoalescer {
+
+    // saves of a gym that conflict with a concurrent write, before the callers get the conflict
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final GymRepository gymRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Lane[] lanes;
+    private final long windowNanos;
+    private final Duration batchTimeout;
+
+    public GymWriteCoalescer(GymRepository gymRepository,
+                             ApplicationEventPublisher eventPublisher,
+                             @Value("${app.reviews.coalescing.stripes:64}") int stripes,
+                             @Value("${app.reviews.coalescing.window:2ms}") Duration window,
+                             @Value("${app.bulkhead.review-writes.timeout:5s}") Duration batchTimeout) {
+        this.gymRepository = gymRepository;
+        this.eventPublisher = eventPublisher;
+        this.lanes = new Lane[stripes];
+        for (int i = 0; i < stripes; i++) {
+            lanes[i] = new Lane();
+        }
+        this.windowNanos = window.toNanos();
+        this.batchTimeout = batchTimeout;
+    }
+
+    // applies the mutation to the current version of the gym and returns once the gym is saved
+    public <T> T apply(String gymId, Function<Gym, T> mutation) {
+        Mutation<T> queued = new Mutation<>(mutation);
+        Lane lane = lanes[Math.floorMod(gymId.hashCode(), lanes.length)];
+
+        boolean writer;
+        lane.lock.lock();
+        try {
+            lane.pending.computeIfAbsent(gymId, id -> new ArrayList<>()).add(queued);
+            writer = !lane.writing;
+            lane.writing = true;
+        } finally {
+            lane.lock.unlock();
+        }
+
+        if (writer) {
+            waitForWindow();
+            writeBatch(lane);
+        } else {
+            // either the writer saved our mutation, or it handed the writer role to us
+            awaitWakeUp(lane, gymId, queued);
+            if (!queued.result.isDone()) {
+                // the mutations piled up while the previous batch was written, no need to wait for more
+                writeBatch(lane);
+            }
+        }
+
+        // done by now: the writer of our batch completed it before waking us up, or we wrote it ourselves
+        try {
+            return queued.result.join();
+        } catch (CompletionException e) {
+            // rethrow what the mutation threw, so the error handling upstream sees e.g. ReviewNotAllowedException
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    // Waits no longer than the caller's own deadline (the writer may be stuck on a slow save). A mutation that is still
+    // pending when the time is up is taken back, so it's never saved after its caller got the timeout. One that is
+    // already in the batch being written can't be taken back anymore, its caller gets the timeout all the same
+    private void awaitWakeUp(Lane lane, String gymId, Mutation<?> queued) {
+        long remainingNanos = OperationDeadline.currentRemainingNanos();
+        if (remainingNanos == Long.MAX_VALUE) {
+            queued.wakeUp.join();
+            return;
+        }
+        try {
+            queued.wakeUp.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+            return;
+        } catch (TimeoutException e) {
+            // handled below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // wakeUp is never completed exceptionally
+            throw new IllegalStateException(e);
+        }
+
+        lane.lock.lock();
+        try {
+            // the writer role is handed over under the lock: if it's ours by now, we have to take it
+            if (queued.wakeUp.isDone()) {
+                return;
+            }
+            List<Mutation<?>> pendingOfGym = lane.pending.get(gymId);
+            if (pendingOfGym != null && pendingOfGym.remove(queued) && pendingOfGym.isEmpty()) {
+                lane.pending.remove(gymId);
+            }
+        } finally {
+            lane.lock.unlock();
+        }
+        throw new OperationTimeoutException("timed out waiting for the write of gym " + gymId);
+    }
+
+    // writes everything that is pending - that always includes the writer's own mutation, nobody else took the pending
+    // mutations since it became the writer. Then the writer is done: the next pending caller takes over, so under
+    // load no caller keeps writing other people's batches for ever
+    private void writeBatch(Lane lane) {
+        Map<String, List<Mutation<?>>> batch;
+        lane.lock.lock();
+        try {
+            batch = lane.pending;
+            lane.pending = new LinkedHashMap<>();
+        } finally {
+            lane.lock.unlock();
+        }
+
+        List<Gym> saved = new ArrayList<>(batch.size());
+        try {
+            // the batch holds the mutations of other callers too, the deadline of the writer's own request must not
+            // fail them - every batch gets the review-writes timeout of its own
+            OperationDeadline.runWithin(Bulkheads.REVIEW_WRITES, batchTimeout, () -> batch.forEach((gymId, mutations) -> {
+                Gym savedGym = writeGym(gymId, mutations);
+                if (savedGym != null) {
+                    saved.add(savedGym);
+                }
+            }));
+        } catch (Throwable t) {
+            // an Error out of a mutation or the repository. It goes to the callers whose mutations weren't written
+            // (fail is a no-op for the others) - the writer too only gets it if its own mutation is one of them
+            log.error("writing a batch of gyms {} failed", batch.keySet(), t);
+            batch.values().forEach(mutations -> mutations.forEach(mutation -> mutation.fail(t)));
+        } finally {
+            handOver(lane);
+        }
+
+        // one event per save, not per mutation. Only now: the listeners (search replica, event streams) must not hold up
+        // the next batch of the lane, and the callers already have their results - a failing listener must not turn
+        // the saved gym into an error for them
+        for (Gym savedGym : saved) {
+            try {
+                eventPublisher.publishEvent(GymChangedEvent.saved(savedGym));
+            } catch (RuntimeException e) {
+                log.warn("listener of the change event of gym {} failed", savedGym.getId(), e);
+            }
+        }
+    }
+
+    private void handOver(Lane lane) {
+        lane.lock.lock();
+        try {
+            if (lane.pending.isEmpty()) {
+                lane.writing = false;
+            } else {
+                lane.pending.values().iterator().next().getFirst().wakeUp.complete(null);
+            }
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    // The gym is saved with the _seq_no/_primary_term it was read with (Gym.seqNoPrimaryTerm): if it was written in
+    // between - deleted, edited by another instance - the save fails instead of overwriting that, and the mutations
+    // are applied again to the gym as it is now
+    // the saved gym, null if nothing was saved
+    private Gym writeGym(String gymId, List<Mutation<?>> mutations) {
+        Gym saved = null;
+        try {
+            for (int attempt = 1; saved == null; attempt++) {
+                Gym gym = gymRepository.findById(gymId).orElseThrow(
+                        () -> new GymNotFoundException("gym could not found with id:" + gymId));
+
+                // a mutation that threw in an earlier attempt has its result already
+                List<Mutation<?>> applied = new ArrayList<>(mutations.size());
+                for (Mutation<?> mutation : mutations) {
+                    if (!mutation.result.isDone() && mutation.applyTo(gym)) {
+                        applied.add(mutation);
+                    }
+                }
+                if (applied.isEmpty()) {
+                    return null;
+                }
+
+                try {
+                    saved = gymRepository.save(gym);
+                } catch (OptimisticLockingFailureException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.debug("gym {} was written concurrently, applying {} mutations again", gymId, applied.size());
+                    continue;
+                }
+                applied.forEach(Mutation::complete);
+            }
+        } catch (RuntimeException e) {
+            // gym gone or save failed -> nothing of this batch made it, every caller gets the exception
+            mutations.forEach(mutation -> mutation.fail(e));
+            return null;
+        }
+        return saved;
+    }
+
+    private void waitForWindow() {
+        if (windowNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(Duration.ofNanos(windowNanos));
+        } catch (InterruptedException e) {
+            // just write what we have
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Lane {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Map<String, List<Mutation<?>>> pending = new LinkedHashMap<>();
+        private boolean writing;
+    }
+
+    private static final class Mutation<T> {
+        private final Function<Gym, T> function;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // completed when the result is there, or when the caller becomes the writer of its lane
+        private final CompletableFuture<Void> wakeUp = new CompletableFuture<>();
+        private T value;
+
+        private Mutation(Function<Gym, T> function) {
+            this.function = function;
+        }
+
+        // false if the mutation threw, its caller already has the exception then
+        private boolean applyTo(Gym gym) {
+            try {
+                value = function.apply(gym);
+                return true;
+            } catch (RuntimeException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        // only after the save, a caller must not see its result before it's persisted
+        private void complete() {
+            result.complete(value);
+            wakeUp.complete(null);
+        }
+
+        // no-op if the mutation already has its result
+        private void fail(Throwable t) {
+            result.completeExceptionally(t);
+            wakeUp.complete(null);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.jomeerkatz.gym.services.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+// Reads image type and dimensions from the first bytes of a file, without decoding any pixels.
+// That way we can reject unsupported files and decompression bombs (tiny file, gigantic canvas) before we spend
+// memory or CPU on them.
+final class ImageHeaderSniffer {
+
+    record ImageHeader(String mimeType, String extension, int width, int height) {
+        long pixels() {
+            return (long) width * height;
+        }
+    }
+
+    private ImageHeaderSniffer() {
+    }
+
+    static Optional<ImageHeader> sniff(byte[] head, int length) {
+        if (startsWith(head, length, 0xFF, 0xD8, 0xFF)) {
+            return sniffJpeg(head, length);
+        }
+        if (startsWith(head, length, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return sniffPng(head, length);
+        }
+        if (startsWith(head, length, 'G', 'I', 'F', '8')) {
+            return sniffGif(head, length);
+        }
+        if (startsWith(head, length, 'R', 'I', 'F', 'F') && length >= 12
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return sniffWebp(head, length);
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<ImageHeader> sniffPng(byte[] head, int length) {
+        // signature (8) + chunk length (4) + "IHDR" (4) + width (4) + height (4)
+        if (length < 24 || head[12] != 'I' || head[13] != 'H' || head[14] != 'D' || head[15] != 'R') {
+            return Optional.empty();
+        }
+        return header("image/png", "png", readIntBigEndian(head, 16), readIntBigEndian(head, 20));
+    }
+
+    private static Optional<ImageHeader> sniffGif(byte[] head, int length) {
+        if (length < 10) {
+            return Optional.empty();
+        }
+        return header("image/gif", "gif", readShortLittleEndian(head, 6), readShortLittleEndian(head, 8));
+    }
+
+    private static Optional<ImageHeader> sniffWebp(byte[] head, int length) {
+        if (length < 30) {
+            return Optional.empty();
+        }
+        String chunk = new String(head, 12, 4, StandardCharsets.US_ASCII);
+        return switch (chunk) {
+            // lossy: 14 bit width/height after the frame tag
+            case "VP8 " -> header("image/webp", "webp",
+                    readShortLittleEndian(head, 26) & 0x3FFF,
+                    readShortLittleEndian(head, 28) & 0x3FFF);
+            // lossless: 14 bit width-1 and height-1 packed into 4 bytes after the signature byte
+            case "VP8L" -> header("image/webp", "webp",
+                    1 + ((head[21] & 0xFF) | (head[22] & 0x3F) << 8),
+                    1 + ((head[22] & 0xC0) >> 6 | (head[23] & 0xFF) << 2 | (head[24] & 0x0F) << 10));
+            // extended: 24 bit canvas width-1 and height-1
+            case "VP8X" -> header("image/webp", "webp",
+                    1 + readInt24LittleEndian(head, 24),
+                    1 + readInt24LittleEndian(head, 27));
+            default -> Optional.empty();
+        };
+    }
+
+    private static Optional<ImageHeader> sniffJpeg(byte[] head, int length) {
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if ((head[offset] & 0xFF) != 0xFF) {
+                return Optional.empty();
+            }
+            int marker = head[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // markers without payload
+                offset += 2;
+                continue;
+            }
+            int segmentLength = readShortBigEndian(head, offset + 2);
+            if (isStartOfFrame(marker)) {
+                if (offset + 9 > length) {
+                    return Optional.empty();
+                }
+                // segment: length (2) precision (1) height (2) width (2)
+                return header("image/jpeg", "jpg", readShortBigEndian(head, offset + 7), readShortBigEndian(head, offset + 5));
+            }
+            if (marker == 0xDA || segmentLength < 2) {
+                // start of scan before any frame header -> broken file
+                return Optional.empty();
+            }
+            offset += 2 + segmentLength;
+        }
+        // frame header is not inside the sniffed bytes (e.g. huge metadata segments)
+        return Optional.empty();
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static Optional<ImageHeader> header(String mimeType, String extension, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new ImageHeader(mimeType, extension, width, height));
+    }
+
+    private static boolean startsWith(byte[] head, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((head[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readIntBigEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static int readShortBigEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static int readShortLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt24LittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16;
+    }
+}
@@ -0,0 +1,88 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.StoredImage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Optional;
+
+// Creates a low quality image placeholder (LQIP): the photo scaled down to a few pixels and encoded as a base64 data
+// uri. It's a few hundred bytes, travels inside the search results, and the browser blurs it up while the real image
+// is still loading.
+@Component
+@Slf4j
+public class ImagePlaceholderGenerator {
+    private final int placeholderSize;
+
+    public ImagePlaceholderGenerator(@Value("${app.upload.placeholder-size:16}") int placeholderSize) {
+        this.placeholderSize = placeholderSize;
+    }
+
+    public Optional<String> createPlaceholder(Resource image, StoredImage storedImage) {
+        try (InputStream inputStream = image.getInputStream();
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                // e.g. webp, the jdk has no decoder for it
+                return Optional.empty();
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+
+                // Only decode every n-th pixel: we never hold the full resolution image in memory, a 4000px photo
+                // gets decoded at ~4 * placeholderSize pixels width.
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(storedImage.getWidth(), storedImage.getHeight()) / (placeholderSize * 4));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                BufferedImage decoded = reader.read(0, param);
+                return Optional.of(toDataUri(scaleDown(decoded)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            // a missing placeholder is not worth failing the upload for
+            log.warn("could not create placeholder for {}", storedImage.getFilename(), e);
+            return Optional.empty();
+        }
+    }
+
+    private BufferedImage scaleDown(BufferedImage source) {
+        double scale = (double) placeholderSize / Math.max(source.getWidth(), source.getHeight());
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static String toDataUri(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", outputStream);
+        return "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(outputStream.toByteArray());
+    }
+}
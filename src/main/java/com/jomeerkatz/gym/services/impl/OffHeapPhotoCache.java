@@ -0,0 +1,333 @@
+package com.jomeerkatz.gym.services.impl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+// Size-bounded cache for small, frequently requested photos (e.g. gym cover images).
+// The bytes live in direct ByteBuffers (off-heap), so even a full cache does not add to GC pressure - the heap only
+// holds the small map entries pointing to the buffers.
+// Admission is frequency based (TinyLFU style): a photo only gets in after it was requested a few times, and it may
+// only push out older entries if it is requested more often than they are. One-off requests never pollute the cache.
+@Component
+@Slf4j
+public class OffHeapPhotoCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final int admissionThreshold;
+
+    // access-ordered map -> iteration order is least recently used first, which gives us the eviction order for free
+    private final LinkedHashMap<String, CachedPhoto> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencies = new FrequencySketch(4096);
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public OffHeapPhotoCache(
+            @Value("${app.photo-cache.enabled:false}") boolean enabled,
+            @Value("${app.photo-cache.max-size:64MB}") DataSize maxSize,
+            @Value("${app.photo-cache.max-entry-size:512KB}") DataSize maxEntrySize,
+            @Value("${app.photo-cache.admission-threshold:2}") int admissionThreshold
+    ) {
+        this.enabled = enabled;
+        this.maxBytes = maxSize.toBytes();
+        this.maxEntryBytes = Math.min(maxEntrySize.toBytes(), maxBytes);
+        this.admissionThreshold = admissionThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<Resource> get(String id) {
+        CachedPhoto cachedPhoto;
+        synchronized (this) {
+            frequencies.increment(id);
+            cachedPhoto = entries.get(id);
+        }
+        if (cachedPhoto == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(new ByteBufferResource(cachedPhoto.buffer(), id));
+    }
+
+    // Tries to copy the resource into the cache. Returns the cached (off-heap) resource when it was admitted,
+    // otherwise the original resource so the caller can stream it from disk as before.
+    public Resource admit(String id, Resource resource) {
+        long size;
+        try {
+            size = resource.contentLength();
+        } catch (IOException e) {
+            return resource;
+        }
+
+        if (size <= 0 || size > maxEntryBytes) {
+            return resource;
+        }
+
+        synchronized (this) {
+            if (entries.containsKey(id) || frequencies.frequency(id) < admissionThreshold) {
+                return resource;
+            }
+            if (!makeRoomFor(id, size)) {
+                rejections.increment();
+                return resource;
+            }
+            // reserve the space before leaving the lock, the actual read happens outside of it
+            usedBytes += size;
+        }
+
+        ByteBuffer buffer;
+        try {
+            buffer = readIntoDirectBuffer(resource, (int) size);
+        } catch (IOException e) {
+            log.warn("could not cache photo {}", id, e);
+            synchronized (this) {
+                usedBytes -= size;
+            }
+            return resource;
+        }
+
+        synchronized (this) {
+            CachedPhoto previous = entries.put(id, new CachedPhoto(buffer));
+            if (previous != null) {
+                // another thread cached the same photo in the meantime
+                usedBytes -= previous.size();
+            }
+        }
+        admissions.increment();
+        return new ByteBufferResource(buffer, id);
+    }
+
+    public synchronized void invalidate(String id) {
+        CachedPhoto removed = entries.remove(id);
+        if (removed != null) {
+            usedBytes -= removed.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gym.photo.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("gym.photo.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        FunctionCounter.builder("gym.photo.cache.evictions", evictions, LongAdder::sum).register(registry);
+        Gauge.builder("gym.photo.cache.used", this, cache -> cache.stats().usedBytes()).baseUnit("bytes").register(registry);
+    }
+
+    public synchronized PhotoCacheStats stats() {
+        return new PhotoCacheStats(
+                hits.sum(),
+                misses.sum(),
+                admissions.sum(),
+                rejections.sum(),
+                evictions.sum(),
+                entries.size(),
+                usedBytes,
+                maxBytes
+        );
+    }
+
+    // must be called while holding the lock
+    private boolean makeRoomFor(String id, long size) {
+        long needed = usedBytes + size - maxBytes;
+        if (needed <= 0) {
+            return true;
+        }
+
+        int candidateFrequency = frequencies.frequency(id);
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+
+        Iterator<Map.Entry<String, CachedPhoto>> iterator = entries.entrySet().iterator();
+        while (freed < needed && iterator.hasNext()) {
+            Map.Entry<String, CachedPhoto> victim = iterator.next();
+            // the newcomer has to be requested more often than what it would replace
+            if (frequencies.frequency(victim.getKey()) >= candidateFrequency) {
+                return false;
+            }
+            victims.add(victim.getKey());
+            freed += victim.getValue().size();
+        }
+
+        if (freed < needed) {
+            return false;
+        }
+
+        for (String victim : victims) {
+            CachedPhoto removed = entries.remove(victim);
+            usedBytes -= removed.size();
+            evictions.increment();
+        }
+        return true;
+    }
+
+    private static ByteBuffer readIntoDirectBuffer(Resource resource, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        try (ReadableByteChannel channel = resource.readableChannel()) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("photo changed while it was read into the cache");
+                }
+            }
+        }
+        return buffer.flip().asReadOnlyBuffer();
+    }
+
+    private record CachedPhoto(ByteBuffer buffer) {
+        long size() {
+            return buffer.capacity();
+        }
+    }
+
+    public record PhotoCacheStats(
+            long hits,
+            long misses,
+            long admissions,
+            long rejections,
+            long evictions,
+            int entries,
+            long usedBytes,
+            long maxBytes
+    ) {
+        public double hitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+
+    // Count-min sketch with 4 rows. Uses a fixed amount of memory no matter how many different photo ids we see.
+    // After a while all counters get halved, so photos that were popular last week slowly lose their advantage.
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final int[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width) {
+            this.table = new int[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int row = 0; row < DEPTH; row++) {
+                table[row][index(hash, row)]++;
+            }
+            if (++additions >= sampleSize) {
+                age();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, table[row][index(hash, row)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void age() {
+            for (int[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+
+    // Resource view on a cached buffer. Every reader gets its own duplicate, so concurrent downloads of the same
+    // photo don't share a position. The buffer stays valid even if the entry gets evicted while it is being sent.
+    private static final class ByteBufferResource extends AbstractResource {
+        private final ByteBuffer buffer;
+        private final String filename;
+
+        ByteBufferResource(ByteBuffer buffer, String filename) {
+            this.buffer = buffer;
+            this.filename = filename;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long contentLength() {
+            return buffer.capacity();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            return "cached photo [" + filename + "]";
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            ByteBuffer view = buffer.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return view.hasRemaining() ? view.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) {
+                    if (!view.hasRemaining()) {
+                        return -1;
+                    }
+                    int count = Math.min(length, view.remaining());
+                    view.get(bytes, offset, count);
+                    return count;
+                }
+
+                @Override
+                public int available() {
+                    return view.remaining();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.PhotoGcReport;
+import com.jomeerkatz.gym.domain.StoredFile;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.domain.entities.Photo;
+import com.jomeerkatz.gym.domain.entities.Review;
+import com.jomeerkatz.gym.repositories.PhotoMetadataRepository;
+import com.jomeerkatz.gym.services.StorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Mark-and-sweep for photos nobody points to anymore: uploads that never got attached to a gym or review, photos of
+// deleted gyms/reviews and photos that were replaced on update.
+// mark  -> stream every referenced photo url out of the gyms index (scroll, only the url fields are fetched)
+// sweep -> walk the storage directory and delete every file that is not marked and older than the grace period.
+// The grace period protects uploads that are not yet referenced because the user is still filling out the form.
+@Component
+@ConditionalOnProperty(name = "app.photo-gc.enabled", havingValue = "true")
+@Slf4j
+public class OrphanedPhotoCollector {
+    private static final int SCROLL_BATCH_SIZE = 500;
+    private static final int MAX_SAMPLE_ORPHANS = 100;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final StorageService storageService;
+    private final OffHeapPhotoCache photoCache;
+    private final PhotoMetadataRepository photoMetadataRepository;
+    private final Duration gracePeriod;
+    private final boolean dryRun;
+    private final long pauseBetweenDeletesMillis;
+
+    public OrphanedPhotoCollector(
+            ElasticsearchOperations elasticsearchOperations,
+            StorageService storageService,
+            OffHeapPhotoCache photoCache,
+            PhotoMetadataRepository photoMetadataRepository,
+            @Value("${app.photo-gc.grace-period:24h}") Duration gracePeriod,
+            @Value("${app.photo-gc.dry-run:true}") boolean dryRun,
+            @Value("${app.photo-gc.max-deletes-per-second:20}") int maxDeletesPerSecond
+    ) {
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.storageService = storageService;
+        this.photoCache = photoCache;
+        this.photoMetadataRepository = photoMetadataRepository;
+        this.gracePeriod = gracePeriod;
+        this.dryRun = dryRun;
+        this.pauseBetweenDeletesMillis = 1000L / Math.max(1, maxDeletesPerSecond);
+    }
+
+    @Scheduled(cron = "${app.photo-gc.cron:0 30 3 * * *}")
+    public void scheduledRun() {
+        collect(dryRun);
+    }
+
+    public PhotoGcReport collect(boolean dryRun) {
+        PhotoGcReport report = PhotoGcReport.builder()
+                .startedAt(Instant.now())
+                .dryRun(dryRun)
+                .build();
+
+        // if the mark phase fails we must not sweep -> every photo would look like an orphan
+        Set<String> referenced = collectReferencedPhotoUrls();
+        report.setReferencedPhotos(referenced.size());
+
+        Instant cutoff = report.getStartedAt().minus(gracePeriod);
+
+        try (Stream<StoredFile> storedFiles = storageService.listStoredFiles()) {
+            Iterator<StoredFile> files = storedFiles.iterator();
+            while (files.hasNext()) {
+                // interrupted (shutdown): stop, without the pause between deletes there'd be no rate limit anymore
+                if (Thread.currentThread().isInterrupted()) {
+                    log.warn("orphaned photo collection interrupted, stopping after {} files", report.getScannedFiles());
+                    break;
+                }
+                sweep(files.next(), referenced, cutoff, report);
+            }
+        }
+
+        report.setFinishedAt(Instant.now());
+        log.info("orphaned photo collection finished: {}", report);
+        return report;
+    }
+
+    private Set<String> collectReferencedPhotoUrls() {
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.matchAll(m -> m))
+                .withSourceFilter(FetchSourceFilter.of(filter -> filter
+                        .withIncludes("photos.url", "reviews.photos.url")))
+                .withPageable(PageRequest.of(0, SCROLL_BATCH_SIZE))
+                .build();
+
+        Set<String> referenced = new HashSet<>();
+        try (SearchHitsIterator<Gym> gyms = elasticsearchOperations.searchForStream(query, Gym.class)) {
+            gyms.forEachRemaining(hit -> {
+                Gym gym = hit.getContent();
+                addUrls(gym.getPhotos(), referenced);
+                if (gym.getReviews() != null) {
+                    for (Review review : gym.getReviews()) {
+                        addUrls(review.getPhotos(), referenced);
+                    }
+                }
+            });
+        }
+        return referenced;
+    }
+
+    private static void addUrls(List<Photo> photos, Set<String> referenced) {
+        if (photos == null) {
+            return;
+        }
+        for (Photo photo : photos) {
+            if (photo.getUrl() != null) {
+                referenced.add(photo.getUrl());
+            }
+        }
+    }
+
+    private void sweep(StoredFile storedFile, Set<String> referenced, Instant cutoff, PhotoGcReport report) {
+        report.setScannedFiles(report.getScannedFiles() + 1);
+
+        if (referenced.contains(storedFile.getFilename())) {
+            return;
+        }
+        if (storedFile.getLastModified().isAfter(cutoff)) {
+            report.setKeptWithinGracePeriod(report.getKeptWithinGracePeriod() + 1);
+            return;
+        }
+
+        report.setOrphanedFiles(report.getOrphanedFiles() + 1);
+        report.setOrphanedBytes(report.getOrphanedBytes() + storedFile.getSizeBytes());
+        if (report.getSampleOrphans().size() < MAX_SAMPLE_ORPHANS) {
+            report.getSampleOrphans().add(storedFile.getFilename());
+        }
+
+        if (report.isDryRun()) {
+            return;
+        }
+
+        photoCache.invalidate(storedFile.getFilename());
+        if (storageService.delete(storedFile.getFilename())) {
+            photoMetadataRepository.deleteById(storedFile.getFilename());
+            report.setDeletedFiles(report.getDeletedFiles() + 1);
+        }
+        throttle();
+    }
+
+    // simple rate limit, so a big backlog of orphans does not hammer the disk in one go
+    private void throttle() {
+        try {
+            Thread.sleep(pauseBetweenDeletesMillis);
+        } catch (InterruptedException e) {
+            // the sweep loop sees the flag and stops
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,38 +1,181 @@
 package com.jomeerkatz.gym.services.impl;
 
+import com.jomeerkatz.gym.domain.PhotoUploadResult;
+import com.jomeerkatz.gym.domain.StoredImage;
 import com.jomeerkatz.gym.domain.entities.Photo;
+import com.jomeerkatz.gym.domain.entities.PhotoMetadata;
+import com.jomeerkatz.gym.exceptions.BaseException;
+import com.jomeerkatz.gym.exceptions.InvalidPhotoException;
+import com.jomeerkatz.gym.exceptions.StorageException;
+import com.jomeerkatz.gym.mappers.PhotoMapper;
+import com.jomeerkatz.gym.repositories.PhotoMetadataRepository;
 import com.jomeerkatz.gym.services.PhotoService;
 import com.jomeerkatz.gym.services.StorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
+@Slf4j
 public class PhotoServiceImpl implements PhotoService {
 
     private StorageService storageService;
+    private OffHeapPhotoCache photoCache;
+    private PhotoUploadLimiter uploadLimiter;
+    private Executor photoProcessingExecutor;
+    private int maxBatchFiles;
+    private ImagePlaceholderGenerator placeholderGenerator;
+    private PhotoMetadataRepository photoMetadataRepository;
+    private PhotoMapper photoMapper;
 
-    public PhotoServiceImpl (StorageService storageService) {
+    public PhotoServiceImpl (StorageService storageService,
+                             OffHeapPhotoCache photoCache,
+                             PhotoUploadLimiter uploadLimiter,
+                             @Qualifier("photoProcessingExecutor") Executor photoProcessingExecutor,
+                             @Value("${app.upload.max-batch-files:10}") int maxBatchFiles,
+                             ImagePlaceholderGenerator placeholderGenerator,
+                             PhotoMetadataRepository photoMetadataRepository,
+                             PhotoMapper photoMapper) {
         this.storageService = storageService;
+        this.photoCache = photoCache;
+        this.uploadLimiter = uploadLimiter;
+        this.photoProcessingExecutor = photoProcessingExecutor;
+        this.maxBatchFiles = maxBatchFiles;
+        this.placeholderGenerator = placeholderGenerator;
+        this.photoMetadataRepository = photoMetadataRepository;
+        this.photoMapper = photoMapper;
     }
 
     @Override
     public Photo uploadFile(MultipartFile file) { // coming from the client
-        String photoId = UUID.randomUUID().toString(); // create a random UUID
-        String url = storageService.store(file, photoId); //
+        if (file.isEmpty()) {
+            throw new StorageException("cannot save an empty file!");
+        }
+        // multipart uploads take the same path as streamed ones, so both get their metadata extracted
+        try (InputStream inputStream = file.getInputStream()) {
+            return uploadStream(inputStream);
+        } catch (IOException e) {
+            throw new StorageException("failed to store file", e);
+        }
+    }
+
+    @Override
+    public List<PhotoUploadResult> uploadFiles(List<MultipartFile> files) {
+        if (files.size() > maxBatchFiles) {
+            throw new InvalidPhotoException("a batch may contain at most " + maxBatchFiles + " files");
+        }
 
-        return Photo.builder()
-                .url(url)
-                .uploadDate(LocalDateTime.now())
+        // start all uploads first, then wait for them in input order
+        List<CompletableFuture<PhotoUploadResult>> uploads = new ArrayList<>(files.size());
+        for (int index = 0; index < files.size(); index++) {
+            int fileIndex = index;
+            MultipartFile file = files.get(index);
+            try {
+                uploads.add(CompletableFuture.supplyAsync(() -> uploadOne(fileIndex, file), photoProcessingExecutor));
+            } catch (RejectedExecutionException ex) {
+                // processing queue is full -> report it for this file instead of failing the whole batch
+                uploads.add(CompletableFuture.completedFuture(PhotoUploadResult.builder()
+                        .index(fileIndex)
+                        .originalFilename(file.getOriginalFilename())
+                        .error("too many uploads at the moment, please try again")
+                        .build()));
+            }
+        }
+
+        return uploads.stream().map(CompletableFuture::join).toList();
+    }
+
+    private PhotoUploadResult uploadOne(int index, MultipartFile file) {
+        PhotoUploadResult result = PhotoUploadResult.builder()
+                .index(index)
+                .originalFilename(file.getOriginalFilename())
                 .build();
+        try {
+            result.setPhoto(uploadFile(file));
+        } catch (BaseException ex) {
+            // expected problems (not an image, too large, storage busy) are reported per file
+            log.warn("upload of file {} in batch failed: {}", index, ex.getMessage());
+            result.setError(ex.getMessage());
+        } catch (RuntimeException ex) {
+            log.error("unexpected error while uploading file {} in batch", index, ex);
+            result.setError("an unexpected error occurred");
+        }
+        return result;
+    }
+
+    @Override
+    public Photo uploadStream(InputStream inputStream) {
+        String photoId = UUID.randomUUID().toString();
+        // placeholder generation decodes pixels -> it counts against the upload limit as well
+        PhotoMetadata metadata = uploadLimiter.run(() -> {
+            StoredImage storedImage = storageService.storeImage(inputStream, photoId);
+            return PhotoMetadata.builder()
+                    .url(storedImage.getFilename())
+                    .uploadDate(LocalDateTime.now())
+                    .width(storedImage.getWidth())
+                    .height(storedImage.getHeight())
+                    .sizeBytes(storedImage.getSizeBytes())
+                    .mimeType(storedImage.getMimeType())
+                    .sha256(storedImage.getSha256())
+                    .placeholder(createPlaceholder(storedImage))
+                    .build();
+        });
+
+        // gyms and reviews only reference the photo by url later on, this is where they pick the metadata up again
+        return photoMapper.toPhoto(photoMetadataRepository.save(metadata));
+    }
+
+    private String createPlaceholder(StoredImage storedImage) {
+        return storageService.loadAsResource(storedImage.getFilename())
+                .flatMap(resource -> placeholderGenerator.createPlaceholder(resource, storedImage))
+                .orElse(null);
+    }
+
+    @Override
+    public List<Photo> resolvePhotos(List<String> urls) {
+        // batch callers (bulk gym create, queued reviews) can reference the same photo twice, mget would return it twice
+        Map<String, PhotoMetadata> metadataByUrl = StreamSupport
+                .stream(photoMetadataRepository.findAllById(new LinkedHashSet<>(urls)).spliterator(), false)
+                .collect(Collectors.toMap(PhotoMetadata::getUrl, Function.identity()));
+
+        // keep the order the client sent; photos uploaded before metadata existed just get the url
+        return urls.stream()
+                .map(url -> Optional.ofNullable(metadataByUrl.get(url))
+                        .map(photoMapper::toPhoto)
+                        .orElseGet(() -> Photo.builder().url(url).uploadDate(LocalDateTime.now()).build()))
+                .toList();
     }
 
     @Override
     public Optional<Resource> getPhotoAsResource(String id) {
-        return storageService.loadAsResource(id);
+        if (!photoCache.isEnabled()) {
+            return storageService.loadAsResource(id);
+        }
+
+        // hot photos are served straight from memory, everything else still comes from disk
+        Optional<Resource> cachedPhoto = photoCache.get(id);
+        if (cachedPhoto.isPresent()) {
+            return cachedPhoto;
+        }
+        return storageService.loadAsResource(id).map(resource -> photoCache.admit(id, resource));
     }
 }
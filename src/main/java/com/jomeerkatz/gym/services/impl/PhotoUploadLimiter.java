@@ -0,0 +1,44 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.exceptions.UploadLimitExceededException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Caps how many uploads are written to disk at the same time. Without it a burst of photo uploads occupies all
+// request threads (and the disk), and search requests have to wait behind them.
+@Component
+public class PhotoUploadLimiter {
+    private final Semaphore permits;
+    private final Duration acquireTimeout;
+
+    public PhotoUploadLimiter(
+            @Value("${app.upload.max-concurrent:8}") int maxConcurrentUploads,
+            @Value("${app.upload.acquire-timeout:2s}") Duration acquireTimeout
+    ) {
+        this.permits = new Semaphore(maxConcurrentUploads, true);
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public <T> T run(Supplier<T> upload) {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UploadLimitExceededException("interrupted while waiting for an upload slot");
+        }
+        if (!acquired) {
+            throw new UploadLimitExceededException("too many concurrent uploads");
+        }
+        try {
+            return upload.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -3,11 +3,14 @@ package com.jomeerkatz.gym.services.impl;
 import com.jomeerkatz.gym.domain.GeoLocation;
 import com.jomeerkatz.gym.domain.entities.Address;
 import com.jomeerkatz.gym.services.GeoLocationService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.util.Random;
 
-@Service
+// default for local development, replaced by the gazetteer when app.geo.provider=gazetteer
+@Service("geoLocationProvider")
+@ConditionalOnProperty(name = "app.geo.provider", havingValue = "random", matchIfMissing = true)
 public class RandomHamburgGeoLocationService implements GeoLocationService {
     private static final float MIN_LAT = 53.4f;
     private static final float MAX_LAT = 53.7f;
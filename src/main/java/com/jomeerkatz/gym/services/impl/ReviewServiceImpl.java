@@ -1,16 +1,29 @@
 package com.jomeerkatz.gym.services.impl;
 
+import com.jomeerkatz.gym.config.RequestTiming;
+import com.jomeerkatz.gym.domain.ReviewChangedEvent;
 import com.jomeerkatz.gym.domain.ReviewUpdateCreateRequest;
 import com.jomeerkatz.gym.domain.entities.*;
 import com.jomeerkatz.gym.exceptions.GymNotFoundException;
 import com.jomeerkatz.gym.exceptions.ReviewNotAllowedException;
 import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.repositories.UserReviewRepository;
+import com.jomeerkatz.gym.services.PhotoService;
 import com.jomeerkatz.gym.services.ReviewService;
 import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.ByQueryResponse;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
@@ -20,30 +33,30 @@ import java.util.stream.Collectors;
 
 @Service
 @AllArgsConstructor
+@Slf4j
 public class ReviewServiceImpl implements ReviewService {
+    private static final int REBUILD_BATCH_SIZE = 500;
+
     private final GymRepository gymRepository;
+    private final PhotoService photoService;
+    // all review writes go through here, concurrent writes to the same gym are saved together
+    private final GymWriteCoalescer gymWriteCoalescer;
+    private final UserReviewRepository userReviewRepository;
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
     public Review createReview(User author, String gymId, ReviewUpdateCreateRequest reviewUpdateCreateRequest) {
-        LocalDateTime now = LocalDateTime.now();
-        Gym gym = getGymOrThrow(gymId);
-
-        boolean authorHasWrittenReview = gym.getReviews().stream().anyMatch(
-                currentReview -> currentReview.getWrittenBy().getId().equals(author.getId()));
-
-        if (authorHasWrittenReview) {
+        if (userReviewRepository.existsById(UserReview.id(author.getId(), gymId))) {
             throw new ReviewNotAllowedException("author with id " + author.getId() + " already wrote a review!");
         }
 
-        List<Photo> photos = reviewUpdateCreateRequest.getPhotoIds().stream().map(url ->
-                Photo.builder()
-                        .url(url)
-                        .uploadDate(now)
-                        .build()).toList();
+        LocalDateTime now = LocalDateTime.now();
+        // resolved up front, the gym write below should only do in-memory work
+        List<Photo> photos = photoService.resolvePhotos(reviewUpdateCreateRequest.getPhotoIds());
 
-        String uuid = UUID.randomUUID().toString();
         Review review = Review.builder()
-                .id(uuid)
+                .id(UUID.randomUUID().toString())
                 .content(reviewUpdateCreateRequest.getContent())
                 .datePosted(now)
                 .rating(reviewUpdateCreateRequest.getRating())
@@ -52,22 +65,69 @@ public class ReviewServiceImpl implements ReviewService {
                 .writtenBy(author)
                 .build();
 
-        gym.getReviews().add(review);
+        Review createdReview = gymWriteCoalescer.apply(gymId, gym -> {
+            // the lookup above can't see a second request of the same user that is still in flight, the gym can
+            boolean authorHasWrittenReview = gym.getReviews().stream().anyMatch(
+                    currentReview -> currentReview.getWrittenBy().getId().equals(author.getId()));
 
-        updateAverageGymRating(gym);
+            if (authorHasWrittenReview) {
+                throw new ReviewNotAllowedException("author with id " + author.getId() + " already wrote a review!");
+            }
 
-        Gym savedGym = gymRepository.save(gym);
+            gym.getReviews().add(review);
+            updateAverageGymRating(gym);
+            return review;
+        });
+
+        userReviewRepository.save(UserReview.of(gymId, createdReview));
+        eventPublisher.publishEvent(new ReviewChangedEvent(gymId, createdReview, ReviewChangedEvent.Type.CREATED));
+        return createdReview;
+    }
 
-        return savedGym
-                .getReviews()
-                .stream()
-                .filter(a -> uuid.equals(a.getId()))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("error retrieving created review"));
+    @Override
+    public int addReviews(String gymId, List<Review> reviews) {
+        List<Review> addedReviews = gymWriteCoalescer.apply(gymId, gym -> {
+            Set<String> reviewIds = new HashSet<>();
+            Set<String> authorIds = new HashSet<>();
+            gym.getReviews().forEach(review -> {
+                reviewIds.add(review.getId());
+                authorIds.add(review.getWrittenBy().getId());
+            });
+
+            List<Review> added = new ArrayList<>();
+            for (Review review : reviews) {
+                if (reviewIds.contains(review.getId())) {
+                    // replayed after a restart, it's already in
+                    continue;
+                }
+                if (!authorIds.add(review.getWrittenBy().getId())) {
+                    log.warn("dropping review {}: author {} already wrote a review for gym {}",
+                            review.getId(), review.getWrittenBy().getId(), gymId);
+                    continue;
+                }
+                gym.getReviews().add(review);
+                added.add(review);
+            }
+
+            if (!added.isEmpty()) {
+                updateAverageGymRating(gym);
+            }
+            return added;
+        });
+
+        if (!addedReviews.isEmpty()) {
+            userReviewRepository.saveAll(addedReviews.stream().map(review -> UserReview.of(gymId, review)).toList());
+        }
+        addedReviews.forEach(review ->
+                eventPublisher.publishEvent(new ReviewChangedEvent(gymId, review, ReviewChangedEvent.Type.CREATED)));
+        return addedReviews.size();
     }
 
+    // after every change of the reviews; totalReviews lets readers that don't load the reviews (the gym snapshot)
+    // show the count
     private void updateAverageGymRating(Gym gym) {
         List<Review> reviews = gym.getReviews();
+        gym.setTotalReviews(reviews.size());
 
         if (reviews.isEmpty()) {
             gym.setAverageRating(0.0F);
@@ -92,6 +152,7 @@ public class ReviewServiceImpl implements ReviewService {
         // Extract sort information from the pageable (may be unsorted)
         Sort sort = pageable.getSort();
 
+        long sortStart = RequestTiming.start();
         if (sort.isSorted()) {
             // We currently only honor the first sort order coming from the client
             Sort.Order order = sort.iterator().next(); // e.g. ?sort=rating,asc
@@ -116,6 +177,7 @@ public class ReviewServiceImpl implements ReviewService {
             // Default sort: newest reviews first when no sort parameter is provided
             reviews.sort(Comparator.comparing(Review::getDatePosted).reversed());
         }
+        RequestTiming.record(RequestTiming.SORT, sortStart);
 
         // Calculate index of the first element for the requested page (0-based offset)
         int start = (int) pageable.getOffset();
@@ -155,66 +217,120 @@ public class ReviewServiceImpl implements ReviewService {
                                String reviewId,
                                ReviewUpdateCreateRequest updatedReview)
     {
-        Gym gym = getGymOrThrow(gymId);
-        Review toUpdatedReview = getReviewFromGym(reviewId, gym)
-                .orElseThrow(() ->
-                        new ReviewNotAllowedException("review doesn't exist with the id: " + reviewId));
+        List<Photo> photos = photoService.resolvePhotos(updatedReview.getPhotoIds());
 
-        if (!user.getId().equals(toUpdatedReview.getWrittenBy().getId())) {
-            throw new ReviewNotAllowedException("User can not edit another User's review!");
-        }
+        Review updated = gymWriteCoalescer.apply(gymId, gym -> {
+            Review toUpdatedReview = getReviewFromGym(reviewId, gym)
+                    .orElseThrow(() ->
+                            new ReviewNotAllowedException("review doesn't exist with the id: " + reviewId));
 
-        if (LocalDateTime.now().isAfter(toUpdatedReview.getLastEdited().plusHours(24))) {
-            throw new ReviewNotAllowedException("User can not edit review after 48 hours!");
-        }
+            if (!user.getId().equals(toUpdatedReview.getWrittenBy().getId())) {
+                throw new ReviewNotAllowedException("User can not edit another User's review!");
+            }
+
+            if (LocalDateTime.now().isAfter(toUpdatedReview.getLastEdited().plusHours(24))) {
+                throw new ReviewNotAllowedException("User can not edit review after 48 hours!");
+            }
 
-        toUpdatedReview.setContent(updatedReview.getContent());
-        toUpdatedReview.setRating(updatedReview.getRating());
-        toUpdatedReview.setLastEdited(LocalDateTime.now());
+            toUpdatedReview.setContent(updatedReview.getContent());
+            toUpdatedReview.setRating(updatedReview.getRating());
+            toUpdatedReview.setLastEdited(LocalDateTime.now());
 
-        toUpdatedReview.setPhotos(
-                updatedReview.getPhotoIds()
-                        .stream()
-                        .map(currentPhotoUrl -> Photo.builder()
-                                .url(currentPhotoUrl)
-                                .uploadDate(LocalDateTime.now())
-                                .build()).toList());
+            toUpdatedReview.setPhotos(photos);
 
-        updateAverageGymRating(gym);
+            updateAverageGymRating(gym);
 
-        List<Review> reviewsNotFromUser = gym.getReviews() // go through all reviews and find the right one to update
-                .stream()
-                .filter(currentReview ->
-                        !reviewId.equals(currentReview.getId())).collect(Collectors.toList());
+            List<Review> reviewsNotFromUser = gym.getReviews() // go through all reviews and find the right one to update
+                    .stream()
+                    .filter(currentReview ->
+                            !reviewId.equals(currentReview.getId())).collect(Collectors.toList());
 
-        reviewsNotFromUser.add(toUpdatedReview);
+            reviewsNotFromUser.add(toUpdatedReview);
 
-        gym.setReviews(reviewsNotFromUser);
+            gym.setReviews(reviewsNotFromUser);
 
-        gymRepository.save(gym);
+            return toUpdatedReview;
+        });
 
-        return toUpdatedReview;
+        userReviewRepository.save(UserReview.of(gymId, updated));
+        eventPublisher.publishEvent(new ReviewChangedEvent(gymId, updated, ReviewChangedEvent.Type.UPDATED));
+        return updated;
     }
 
     @Override
     public void deleteReview(User user, String gymId, String reviewId) {
-        Gym gym = getGymOrThrow(gymId);
-        String currentUserId = user.getId();
-        Review reviewToDelete = getReviewFromGym(reviewId, gym).orElseThrow(
-                () -> new ReviewNotAllowedException("review doesn't exist with the id: " + reviewId)
-        );
+        Review deleted = gymWriteCoalescer.apply(gymId, gym -> {
+            Review reviewToDelete = getReviewFromGym(reviewId, gym).orElseThrow(
+                    () -> new ReviewNotAllowedException("review doesn't exist with the id: " + reviewId)
+            );
 
-        if (!user.getId().equals(reviewToDelete.getWrittenBy().getId())) {
-            throw new ReviewNotAllowedException("User can not delete another User's review!");
-        }
+            if (!user.getId().equals(reviewToDelete.getWrittenBy().getId())) {
+                throw new ReviewNotAllowedException("User can not delete another User's review!");
+            }
+
+            List<Review> reviewsNotFromUser = gym.getReviews().stream().filter(currentReview ->
+                    !reviewId.equals(currentReview.getId())).collect(Collectors.toList());
 
-        List<Review> reviewsNotFromUser = gym.getReviews().stream().filter(currentReview ->
-                !reviewId.equals(currentReview.getId())).collect(Collectors.toList());
+            gym.setReviews(reviewsNotFromUser);
 
-        gym.setReviews(reviewsNotFromUser);
+            updateAverageGymRating(gym);
+            return reviewToDelete;
+        });
+
+        userReviewRepository.deleteById(UserReview.id(user.getId(), gymId));
+        eventPublisher.publishEvent(new ReviewChangedEvent(gymId, deleted, ReviewChangedEvent.Type.DELETED));
+    }
 
-        updateAverageGymRating(gym);
+    @Override
+    public Page<UserReview> listUserReviews(String userId, Pageable pageable) {
+        return userReviewRepository.findByUserId(userId, pageable);
+    }
 
-        gymRepository.save(gym);
+    @Override
+    public long rebuildUserReviews() {
+        // only the reviews are needed, streamed with a scroll so the gyms never have to fit into memory at once
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.matchAll(m -> m))
+                .withSourceFilter(FetchSourceFilter.of(b -> b.withIncludes("id", "reviews")))
+                .withPageable(PageRequest.of(0, REBUILD_BATCH_SIZE))
+                .build();
+
+        long indexed = 0;
+        List<UserReview> batch = new ArrayList<>(REBUILD_BATCH_SIZE);
+        try (SearchHitsIterator<Gym> gyms = elasticsearchOperations.searchForStream(query, Gym.class)) {
+            while (gyms.hasNext()) {
+                Gym gym = gyms.next().getContent();
+                for (Review review : gym.getReviews()) {
+                    batch.add(UserReview.of(gym.getId(), review));
+                }
+                if (batch.size() >= REBUILD_BATCH_SIZE) {
+                    userReviewRepository.saveAll(batch);
+                    indexed += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            userReviewRepository.saveAll(batch);
+            indexed += batch.size();
+        }
+        log.info("rebuilt user review index with {} reviews", indexed);
+        return indexed;
+    }
+
+    @Override
+    public long recountReviews() {
+        // in elasticsearch, the reviews never leave the cluster. A gym written concurrently is skipped, that write
+        // sets the count itself
+        UpdateQuery query = UpdateQuery.builder(NativeQuery.builder().withQuery(q -> q.matchAll(m -> m)).build())
+                .withScript("ctx._source.totalReviews = ctx._source.reviews == null ? 0 : ctx._source.reviews.size()")
+                .withLang("painless")
+                .withAbortOnVersionConflict(false)
+                .build();
+        ByQueryResponse response = elasticsearchOperations.updateByQuery(query,
+                elasticsearchOperations.getIndexCoordinatesFor(Gym.class));
+        log.info("recounted the reviews of {} gyms ({} version conflicts)",
+                response.getUpdated(), response.getVersionConflicts());
+        return response.getUpdated();
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.PendingReview;
+import com.jomeerkatz.gym.domain.ReviewUpdateCreateRequest;
+import com.jomeerkatz.gym.domain.entities.Photo;
+import com.jomeerkatz.gym.domain.entities.Review;
+import com.jomeerkatz.gym.domain.entities.User;
+import com.jomeerkatz.gym.domain.entities.UserReview;
+import com.jomeerkatz.gym.exceptions.GymNotFoundException;
+import com.jomeerkatz.gym.exceptions.ReviewNotAllowedException;
+import com.jomeerkatz.gym.exceptions.StorageException;
+import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.repositories.UserReviewRepository;
+import com.jomeerkatz.gym.services.PhotoService;
+import com.jomeerkatz.gym.services.ReviewService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Async review mode (app.reviews.async.enabled=true): a new review is only appended to a local, fsynced log and the
+// request is answered right away. A background job drains the log into elasticsearch, all reviews of one gym in one
+// write. A spike of reviews then queues up on disk instead of turning into a wall of elasticsearch timeouts.
+// After a crash the last batch is applied again - that's fine, ReviewService.addReviews skips reviews it already has.
+// A 202 promises that the review shows up, so submit does the checks of the synchronous path before it appends.
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "app.reviews.async.enabled", havingValue = "true")
+public class ReviewWriteQueue {
+
+    private final DurableAppendLog writeLog;
+    private final JsonMapper jsonMapper;
+    private final ReviewService reviewService;
+    private final PhotoService photoService;
+    private final GymRepository gymRepository;
+    private final UserReviewRepository userReviewRepository;
+    private final int batchSize;
+    // UserReview ids (author:gym) of reviews that are in the log but not in elasticsearch yet, the user review index
+    // can't see them. Filled from the unconsumed part of the log on startup
+    private final Set<String> pendingAuthors = ConcurrentHashMap.newKeySet();
+
+    public ReviewWriteQueue(
+            JsonMapper jsonMapper,
+            ReviewService reviewService,
+            PhotoService photoService,
+            GymRepository gymRepository,
+            UserReviewRepository userReviewRepository,
+            @Value("${app.reviews.async.log-location:review-log}") String logLocation,
+            @Value("${app.reviews.async.compact-size:64MB}") DataSize compactSize,
+            @Value("${app.reviews.async.batch-size:500}") int batchSize
+    ) throws IOException {
+        this.jsonMapper = jsonMapper;
+        this.reviewService = reviewService;
+        this.photoService = photoService;
+        this.gymRepository = gymRepository;
+        this.userReviewRepository = userReviewRepository;
+        this.batchSize = batchSize;
+        this.writeLog = new DurableAppendLog(Paths.get(logLocation), "reviews", compactSize.toBytes());
+        if (writeLog.pendingBytes() > 0) {
+            log.info("review write log has {} bytes of unprocessed reviews, replaying them", writeLog.pendingBytes());
+            rememberPendingAuthors();
+        }
+    }
+
+    // the reviews still in the log count as written for submit, otherwise a second review of the same author gets a
+    // 202 right after a restart and both end up in the log
+    private void rememberPendingAuthors() throws IOException {
+        long offset = writeLog.committedOffset();
+        List<DurableAppendLog.Entry> entries;
+        while (!(entries = writeLog.read(offset, batchSize)).isEmpty()) {
+            for (DurableAppendLog.Entry entry : entries) {
+                try {
+                    PendingReview pendingReview = jsonMapper.readValue(entry.data(), PendingReview.class);
+                    pendingAuthors.add(UserReview.id(pendingReview.getAuthor().getId(), pendingReview.getGymId()));
+                } catch (JacksonException e) {
+                    // skipped (and logged) by the drain
+                }
+            }
+            offset = entries.getLast().endOffset();
+        }
+    }
+
+    // returns the review as it will be stored, the photos only carry their url until the review is written
+    public Review submit(User author, String gymId, ReviewUpdateCreateRequest request) {
+        if (!gymRepository.existsById(gymId)) {
+            throw new GymNotFoundException("gym could not found with id:" + gymId);
+        }
+        String userReviewId = UserReview.id(author.getId(), gymId);
+        if (userReviewRepository.existsById(userReviewId) || !pendingAuthors.add(userReviewId)) {
+            throw new ReviewNotAllowedException("author with id " + author.getId() + " already wrote a review!");
+        }
+
+        PendingReview pendingReview = PendingReview.builder()
+                .id(UUID.randomUUID().toString())
+                .gymId(gymId)
+                .author(author)
+                .content(request.getContent())
+                .rating(request.getRating())
+                .photoIds(request.getPhotoIds())
+                .submittedAt(LocalDateTime.now())
+                .build();
+        try {
+            writeLog.append(jsonMapper.writeValueAsBytes(pendingReview));
+        } catch (IOException e) {
+            pendingAuthors.remove(userReviewId);
+            throw new StorageException("could not queue review", e);
+        }
+        return toReview(pendingReview, pendingReview.getPhotoIds().stream()
+                .map(url -> Photo.builder().url(url).uploadDate(pendingReview.getSubmittedAt()).build())
+                .toList());
+    }
+
+    @Scheduled(fixedDelayString = "${app.reviews.async.poll-interval:200ms}")
+    public void drain() {
+        try {
+            List<DurableAppendLog.Entry> entries;
+            while (!(entries = writeLog.read(batchSize)).isEmpty()) {
+                apply(entries);
+                writeLog.commit(entries.getLast().endOffset());
+            }
+        } catch (IOException | RuntimeException e) {
+            // offset stays where it is -> the same batch is tried again with the next run
+            log.warn("could not write queued reviews, retrying later", e);
+        }
+    }
+
+    private void apply(List<DurableAppendLog.Entry> entries) {
+        Map<String, List<PendingReview>> reviewsByGym = new LinkedHashMap<>();
+        for (DurableAppendLog.Entry entry : entries) {
+            try {
+                PendingReview pendingReview = jsonMapper.readValue(entry.data(), PendingReview.class);
+                reviewsByGym.computeIfAbsent(pendingReview.getGymId(), gymId -> new ArrayList<>()).add(pendingReview);
+            } catch (JacksonException e) {
+                // can never succeed, retrying would block the queue forever
+                log.error("skipping unreadable entry in review write log", e);
+            }
+        }
+
+        reviewsByGym.forEach((gymId, pendingReviews) -> {
+            try {
+                int added = reviewService.addReviews(gymId, toReviews(pendingReviews));
+                log.debug("added {} of {} queued reviews to gym {}", added, pendingReviews.size(), gymId);
+            } catch (GymNotFoundException e) {
+                log.warn("dropping {} queued reviews, gym {} doesn't exist (anymore)", pendingReviews.size(), gymId);
+            }
+            pendingReviews.forEach(pendingReview ->
+                    pendingAuthors.remove(UserReview.id(pendingReview.getAuthor().getId(), gymId)));
+        });
+    }
+
+    private List<Review> toReviews(List<PendingReview> pendingReviews) {
+        // one metadata lookup for all photos of the batch
+        List<String> photoIds = pendingReviews.stream().flatMap(review -> review.getPhotoIds().stream()).toList();
+        Map<String, Photo> photosById = new HashMap<>();
+        photoService.resolvePhotos(photoIds).forEach(photo -> photosById.put(photo.getUrl(), photo));
+
+        return pendingReviews.stream().map(pendingReview -> toReview(pendingReview,
+                pendingReview.getPhotoIds().stream().map(photosById::get).toList())).toList();
+    }
+
+    private static Review toReview(PendingReview pendingReview, List<Photo> photos) {
+        return Review.builder()
+                .id(pendingReview.getId())
+                .content(pendingReview.getContent())
+                .rating(pendingReview.getRating())
+                .datePosted(pendingReview.getSubmittedAt())
+                .lastEdited(pendingReview.getSubmittedAt())
+                .writtenBy(pendingReview.getAuthor())
+                .photos(photos)
+                .build();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writeLog.close();
+    }
+}
@@ -0,0 +1,56 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.SlowQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Every slow elasticsearch request is logged (one line, key=value, easy to grep and to parse), a sample of them is
+// also kept in a fixed size ring buffer for GET /api/admin/elasticsearch/slow-queries. The buffer never grows and
+// writers never wait on each other: each one claims the next slot and overwrites whatever was there.
+@Component
+@Slf4j
+public class SlowQueryLog {
+
+    private final AtomicReferenceArray<SlowQuery> buffer;
+    private final AtomicLong next = new AtomicLong();
+    private final double sampleRate;
+
+    public SlowQueryLog(@Value("${app.elasticsearch.slow-log.buffer-size:200}") int bufferSize,
+                        @Value("${app.elasticsearch.slow-log.sample-rate:1.0}") double sampleRate) {
+        this.buffer = new AtomicReferenceArray<>(bufferSize);
+        this.sampleRate = sampleRate;
+    }
+
+    public void record(SlowQuery slowQuery) {
+        log.warn("slow elasticsearch request: endpoint={} method={} path={} status={} durationMs={} tookMs={} "
+                        + "totalHits={} returnedHits={} responseBytes={} query={}",
+                slowQuery.getEndpoint(), slowQuery.getMethod(), slowQuery.getPath(), slowQuery.getStatus(),
+                slowQuery.getDurationMillis(), slowQuery.getTookMillis(), slowQuery.getTotalHits(),
+                slowQuery.getReturnedHits(), slowQuery.getResponseBytes(), slowQuery.getQuery());
+
+        if (sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            buffer.set((int) (next.getAndIncrement() % buffer.length()), slowQuery);
+        }
+    }
+
+    // newest first
+    public List<SlowQuery> recent() {
+        List<SlowQuery> recent = new ArrayList<>(buffer.length());
+        for (int i = 0; i < buffer.length(); i++) {
+            SlowQuery slowQuery = buffer.get(i);
+            if (slowQuery != null) {
+                recent.add(slowQuery);
+            }
+        }
+        recent.sort(Comparator.comparing(SlowQuery::getTimestamp).reversed());
+        return recent;
+    }
+}
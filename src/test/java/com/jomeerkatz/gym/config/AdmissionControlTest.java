@@ -0,0 +1,79 @@
+package com.jomeerkatz.gym.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The budgets with a time of our own: the buckets get "now" passed in instead of reading the clock.
+class AdmissionControlTest {
+
+    // 60 per minute -> one request per second
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstIsAdmittedThenTheClientWaitsOneInterval() {
+        AdmissionControl.Budget budget = budget(64, 100_000, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, budget.acquire("sub:user-1", 0));
+        }
+        assertEquals(INTERVAL, budget.acquire("sub:user-1", 0));
+        // a rejected request doesn't cost anything
+        assertEquals(INTERVAL / 2, budget.acquire("sub:user-1", INTERVAL / 2));
+    }
+
+    @Test
+    void bucketRefillsWithTheRate() {
+        AdmissionControl.Budget budget = budget(64, 100_000, 3);
+        for (int i = 0; i < 3; i++) {
+            budget.acquire("sub:user-1", 0);
+        }
+
+        assertEquals(0, budget.acquire("sub:user-1", INTERVAL));
+        assertTrue(budget.acquire("sub:user-1", INTERVAL) > 0);
+
+        // idle long enough -> the whole burst again, never more
+        long later = 10 * INTERVAL;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, budget.acquire("sub:user-1", later));
+        }
+        assertTrue(budget.acquire("sub:user-1", later) > 0);
+    }
+
+    @Test
+    void clientsHaveBucketsOfTheirOwn() {
+        AdmissionControl.Budget budget = budget(64, 100_000, 1);
+
+        assertEquals(0, budget.acquire("sub:user-1", 0));
+        assertTrue(budget.acquire("sub:user-1", 0) > 0);
+        assertEquals(0, budget.acquire("ip:10.0.0.1", 0));
+    }
+
+    @Test
+    void fullStripeSharesAnOverflowBucketUntilFullBucketsCanBeDropped() {
+        // one stripe with room for two clients
+        AdmissionControl.Budget budget = budget(1, 2, 1);
+        assertEquals(0, budget.acquire("sub:user-1", 0));
+        assertEquals(0, budget.acquire("sub:user-2", 0));
+
+        // user-1 and user-2 are not full again yet, the new clients are limited together
+        assertEquals(0, budget.acquire("sub:user-3", INTERVAL / 2));
+        assertTrue(budget.acquire("sub:user-4", INTERVAL / 2) > 0);
+
+        // now they are: dropped, and the new clients get buckets of their own
+        assertEquals(0, budget.acquire("sub:user-3", 3 * INTERVAL));
+        assertEquals(0, budget.acquire("sub:user-4", 3 * INTERVAL));
+        assertTrue(budget.acquire("sub:user-4", 3 * INTERVAL) > 0);
+    }
+
+    private static AdmissionControl.Budget budget(int stripes, int maxKeys, int burst) {
+        AdmissionControl admissionControl = new AdmissionControl(true, stripes, maxKeys, 60, burst, 60, burst, 60,
+                burst, 60, burst, new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+        return admissionControl.budget(AdmissionControl.REVIEW_WRITES);
+    }
+}
@@ -0,0 +1,222 @@
+package com.jomeerkatz.gym.config;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.JWKSetCacheRefreshEvaluator;
+import com.nimbusds.jose.jwk.source.JWKSetSource;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The real nimbus decoder against a key set generated here, served by an in-memory source instead of keycloak.
+class CachingJwtDecoderTest {
+
+    private static final String ISSUER = "http://localhost:8080/realms/gym";
+
+    private RSAKey signingKey;
+    private KeySetSource keySetSource;
+
+    @BeforeEach
+    void setUp() throws JOSEException {
+        signingKey = rsaKey("key-1");
+        keySetSource = new KeySetSource(new JWKSet(signingKey.toPublicJWK()));
+    }
+
+    @Test
+    void validTokenIsVerifiedOnceAndThenServedFromTheCache() throws JOSEException {
+        CountingDecoder delegate = new CountingDecoder(JwtDecoderConfig.nimbusJwtDecoder(keySource(), ISSUER));
+        CachingJwtDecoder decoder = new CachingJwtDecoder(delegate, 100, Clock.systemUTC());
+        String token = token(signingKey, "user-1", Instant.now().plusSeconds(300));
+
+        Jwt first = decoder.decode(token);
+        Jwt second = decoder.decode(token);
+
+        assertEquals("user-1", first.getSubject());
+        assertEquals(first, second);
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    void rejectedTokenIsNeverCached() throws JOSEException {
+        CountingDecoder delegate = new CountingDecoder(JwtDecoderConfig.nimbusJwtDecoder(keySource(), ISSUER));
+        CachingJwtDecoder decoder = new CachingJwtDecoder(delegate, 100, Clock.systemUTC());
+        // same kid, but a key that isn't in the key set
+        String forged = token(rsaKey("key-1"), "user-1", Instant.now().plusSeconds(300));
+
+        assertThrows(JwtException.class, () -> decoder.decode(forged));
+        assertThrows(JwtException.class, () -> decoder.decode(forged));
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    void cachedTokenExpiresWithItsExpClaim() throws JOSEException {
+        MutableClock clock = new MutableClock(Instant.now());
+        CountingDecoder delegate = new CountingDecoder(JwtDecoderConfig.nimbusJwtDecoder(keySource(), ISSUER));
+        CachingJwtDecoder decoder = new CachingJwtDecoder(delegate, 100, clock);
+        String token = token(signingKey, "user-1", clock.instant().plusSeconds(60));
+
+        decoder.decode(token);
+        clock.now = clock.now.plusSeconds(59);
+        decoder.decode(token);
+        assertEquals(1, delegate.calls.get());
+
+        clock.now = clock.now.plusSeconds(2);
+        decoder.decode(token);
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    void fullCacheDoesNotTakeNewTokens() throws JOSEException {
+        CountingDecoder delegate = new CountingDecoder(JwtDecoderConfig.nimbusJwtDecoder(keySource(), ISSUER));
+        CachingJwtDecoder decoder = new CachingJwtDecoder(delegate, 2, Clock.systemUTC());
+        Instant exp = Instant.now().plusSeconds(300);
+        String third = token(signingKey, "user-3", exp);
+
+        decoder.decode(token(signingKey, "user-1", exp));
+        decoder.decode(token(signingKey, "user-2", exp));
+        decoder.decode(third);
+        decoder.decode(third);
+
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    void rotatedKeyIsFetchedInTheBackgroundNotOnTheRequestThread() throws Exception {
+        // refreshed in the background well before the key set expires after 1s
+        JWKSource<SecurityContext> jwkSource = JWKSourceBuilder.create(keySetSource)
+                .cache(1_000, 200)
+                .refreshAheadCache(700, true)
+                .rateLimited(false)
+                .build();
+        JwtDecoder decoder = new CachingJwtDecoder(JwtDecoderConfig.nimbusJwtDecoder(jwkSource, ISSUER), 100,
+                Clock.systemUTC());
+        RSAKey rotatedKey = rsaKey("key-2");
+        decoder.decode(token(signingKey, "user-1", Instant.now().plusSeconds(300)));
+
+        // keycloak publishes the new key before it signs with it
+        keySetSource.keySet.set(new JWKSet(List.of(signingKey.toPublicJWK(), rotatedKey.toPublicJWK())));
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!keySetSource.servedKeyIds.contains("key-2") && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(keySetSource.servedKeyIds.contains("key-2"));
+        int fetchesBeforeRequest = keySetSource.fetchThreads.size();
+
+        Jwt jwt = decoder.decode(token(rotatedKey, "user-2", Instant.now().plusSeconds(300)));
+
+        assertEquals("user-2", jwt.getSubject());
+        List<Thread> fetchThreads = keySetSource.fetchThreads;
+        assertFalse(fetchThreads.subList(fetchesBeforeRequest, fetchThreads.size()).contains(Thread.currentThread()));
+    }
+
+    private JWKSource<SecurityContext> keySource() {
+        return JWKSourceBuilder.create(keySetSource).build();
+    }
+
+    private static RSAKey rsaKey(String keyId) throws JOSEException {
+        return new RSAKeyGenerator(2048).keyID(keyId).generate();
+    }
+
+    private static String token(RSAKey key, String subject, Instant expiresAt) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject(subject)
+                .issueTime(new Date())
+                .expirationTime(Date.from(expiresAt))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    // what keycloak would serve, remembers which thread fetched it and which keys went out
+    private static final class KeySetSource implements JWKSetSource<SecurityContext> {
+        private final AtomicReference<JWKSet> keySet;
+        private final List<Thread> fetchThreads = new CopyOnWriteArrayList<>();
+        private final Set<String> servedKeyIds = ConcurrentHashMap.newKeySet();
+
+        private KeySetSource(JWKSet keySet) {
+            this.keySet = new AtomicReference<>(keySet);
+        }
+
+        @Override
+        public JWKSet getJWKSet(JWKSetCacheRefreshEvaluator refreshEvaluator, long currentTime, SecurityContext context) {
+            fetchThreads.add(Thread.currentThread());
+            JWKSet served = keySet.get();
+            served.getKeys().forEach(key -> servedKeyIds.add(key.getKeyID()));
+            return served;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class CountingDecoder implements JwtDecoder {
+        private final JwtDecoder delegate;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private CountingDecoder(JwtDecoder delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Jwt decode(String token) {
+            calls.incrementAndGet();
+            return delegate.decode(token);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
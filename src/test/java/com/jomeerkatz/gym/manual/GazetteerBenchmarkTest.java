@@ -0,0 +1,126 @@
+package com.jomeerkatz.gym.manual;
+
+import com.jomeerkatz.gym.domain.entities.Address;
+import com.jomeerkatz.gym.services.impl.GazetteerIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Memory footprint and lookup latency of the gazetteer for a country-sized dataset (Germany has ~8.200 postal codes
+// and ~1.2 million street/postal code combinations). Not part of the normal build:
+//   ./mvnw test -Dtest=GazetteerBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class GazetteerBenchmarkTest {
+
+    private static final int POSTAL_CODES = 8_200;
+    private static final int STREETS_PER_POSTAL_CODE = 180;
+    private static final int CITIES = 2_000;
+    private static final int LOOKUPS = 1_000_000;
+
+    @Test
+    public void countrySizedGazetteer() throws IOException {
+        Path file = Files.createTempFile("gazetteer", ".csv");
+        try {
+            writeSyntheticGazetteer(file);
+
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+            GazetteerIndex index;
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                index = GazetteerIndex.load(inputStream);
+            }
+            long loadMillis = (System.nanoTime() - start) / 1_000_000;
+            long heapAfter = usedHeap();
+
+            System.out.printf("entries: %d, file: %d MB, load: %d ms%n",
+                    index.size(), Files.size(file) / (1024 * 1024), loadMillis);
+            System.out.printf("index arrays: %d MB, retained heap: %d MB%n",
+                    index.memoryBytes() / (1024 * 1024), (heapAfter - heapBefore) / (1024 * 1024));
+
+            Address[] addresses = randomAddresses(10_000);
+            // warm up, so we measure the jit compiled lookup
+            int found = lookupAll(index, addresses, LOOKUPS);
+
+            start = System.nanoTime();
+            found = lookupAll(index, addresses, LOOKUPS);
+            long nanosPerLookup = (System.nanoTime() - start) / LOOKUPS;
+
+            System.out.printf("lookups: %d, found: %d, avg latency: %d ns%n", LOOKUPS, found, nanosPerLookup);
+            assertTrue(found > 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static int lookupAll(GazetteerIndex index, Address[] addresses, int count) {
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (index.locate(addresses[i % addresses.length]).isPresent()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static void writeSyntheticGazetteer(Path file) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("# country;postalCode;city;street;latitude;longitude\n");
+            for (int postalCode = 0; postalCode < POSTAL_CODES; postalCode++) {
+                float baseLatitude = 47.3f + random.nextFloat() * 7.7f;
+                float baseLongitude = 5.9f + random.nextFloat() * 9.1f;
+                for (int street = 0; street < STREETS_PER_POSTAL_CODE; street++) {
+                    writer.write(String.format(Locale.ROOT, "DE;%05d;%s;%s;%.5f;%.5f%n",
+                            postalCodeOf(postalCode), cityOf(postalCode), streetOf(postalCode, street),
+                            baseLatitude + random.nextFloat() * 0.02f, baseLongitude + random.nextFloat() * 0.02f));
+                }
+            }
+        }
+    }
+
+    private static Address[] randomAddresses(int count) {
+        Random random = new Random(7);
+        Address[] addresses = new Address[count];
+        for (int i = 0; i < count; i++) {
+            int postalCode = random.nextInt(POSTAL_CODES);
+            int street = random.nextInt(STREETS_PER_POSTAL_CODE);
+            addresses[i] = Address.builder()
+                    .country("Germany")
+                    .postalCode(String.format(Locale.ROOT, "%05d", postalCodeOf(postalCode)))
+                    .city(cityOf(postalCode))
+                    // every 10th address has a street we don't know -> falls back to the postal code centroid
+                    .streetName(i % 10 == 0 ? "Unbekannte Straße" : streetOf(postalCode, street))
+                    .streetNumber("1")
+                    .build();
+        }
+        return addresses;
+    }
+
+    private static int postalCodeOf(int postalCode) {
+        return 1_000 + postalCode * 12;
+    }
+
+    private static String cityOf(int postalCode) {
+        return "Stadt " + (postalCode % CITIES);
+    }
+
+    private static String streetOf(int postalCode, int street) {
+        return "Musterstraße " + postalCode + "-" + street;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,109 @@
+package com.jomeerkatz.gym.manual;
+
+import com.jomeerkatz.gym.domain.dtos.GymSummaryDto;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.mappers.GymMapper;
+import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.services.impl.GymSearchReplica;
+import com.jomeerkatz.gym.services.impl.GymServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The same searches once against elasticsearch and once against the in-process replica, from the service call to the
+// serialized page (everything but the http layer). Needs the docker compose elasticsearch with gyms in it (see
+// GymDataLoaderTest). Not part of the normal build:
+//   ./mvnw test -Dtest=GymSearchReplicaBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(properties = "app.search.replica.enabled=true")
+public class GymSearchReplicaBenchmarkTest {
+
+    private static final int WARMUP = 500;
+    private static final int ITERATIONS = 5_000;
+
+    // the shapes the search page sends most: name with a minimum rating, gym type, rating only, around me
+    private static final List<SearchShape> SHAPES = List.of(
+            new SearchShape("name + rating", "fitnes", 3f, null, null, null),
+            new SearchShape("gym type", "crossfit", null, null, null, null),
+            new SearchShape("rating", null, 4f, null, null, null),
+            new SearchShape("radius 5km", null, null, 53.55f, 9.99f, 5_000f)
+    );
+
+    @Autowired
+    private GymRepository gymRepository;
+
+    @Autowired
+    private GymSearchReplica replica;
+
+    @Autowired
+    private GymMapper gymMapper;
+
+    @Autowired
+    private JsonMapper jsonMapper;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Test
+    public void replicaAgainstElasticsearch() {
+        replica.reconcile();
+        assertTrue(replica.isReady());
+
+        // only the repository is needed for a search
+        GymServiceImpl elasticsearch = new GymServiceImpl(gymRepository, null, null, null, null, null, null,
+                new StaticListableBeanFactory().getBeanProvider(GymSearchReplica.class));
+        GymServiceImpl inProcess = new GymServiceImpl(gymRepository, null, null, null, null, null, null,
+                applicationContext.getBeanProvider(GymSearchReplica.class));
+
+        for (SearchShape shape : SHAPES) {
+            // both paths must find the same gyms
+            assertEquals(shape.run(elasticsearch).getTotalElements(), shape.run(inProcess).getTotalElements());
+            Latencies before = measure(elasticsearch, shape);
+            Latencies after = measure(inProcess, shape);
+            System.out.printf("%-22s elasticsearch p50 %7.2f ms  p99 %7.2f ms   replica p50 %7.2f ms  p99 %7.2f ms%n",
+                    shape.name(), before.p50Millis(), before.p99Millis(), after.p50Millis(), after.p99Millis());
+        }
+    }
+
+    private Latencies measure(GymServiceImpl gymService, SearchShape shape) {
+        for (int i = 0; i < WARMUP; i++) {
+            search(gymService, shape);
+        }
+        long[] latencies = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            search(gymService, shape);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return new Latencies(latencies[ITERATIONS / 2] / 1e6, latencies[(int) (ITERATIONS * 0.99)] / 1e6);
+    }
+
+    // what GymController.searchGyms does with the page
+    private byte[] search(GymServiceImpl gymService, SearchShape shape) {
+        Page<GymSummaryDto> page = shape.run(gymService).map(gymMapper::toSummaryDto);
+        return jsonMapper.writeValueAsBytes(page.getContent());
+    }
+
+    private record SearchShape(String name, String query, Float minRating, Float latitude, Float longitude,
+                               Float radius) {
+        Page<Gym> run(GymServiceImpl gymService) {
+            return gymService.searchGyms(query, minRating, latitude, longitude, radius, PageRequest.of(0, 20));
+        }
+    }
+
+    private record Latencies(double p50Millis, double p99Millis) {
+    }
+}
@@ -0,0 +1,140 @@
+package com.jomeerkatz.gym.manual;
+
+import com.jomeerkatz.gym.domain.ReviewUpdateCreateRequest;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.domain.entities.Review;
+import com.jomeerkatz.gym.domain.entities.User;
+import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.repositories.UserReviewRepository;
+import com.jomeerkatz.gym.services.PhotoService;
+import com.jomeerkatz.gym.services.impl.GymWriteCoalescer;
+import com.jomeerkatz.gym.services.impl.ReviewServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Many users reviewing the same gym at once: one load + full save per review (the old way) against the coalesced
+// writer. The repository keeps the gym in memory and takes ELASTICSEARCH_SAVE_MILLIS per save.
+// Not part of the normal build:
+//   ./mvnw test -Dtest=GymWriteCoalescerLoadTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class GymWriteCoalescerLoadTest {
+
+    private static final int CONCURRENT_REVIEWS = 1_000;
+    private static final long ELASTICSEARCH_SAVE_MILLIS = 20;
+    private static final String GYM_ID = "hot-gym";
+
+    @Test
+    public void coalescedWritesAgainstOneSavePerReview() throws Exception {
+        InMemoryGym direct = new InMemoryGym();
+        Result uncoalesced = run(author -> {
+            // what createReview did before: load, add, save - concurrently for the same document
+            Gym gym = direct.repository.findById(GYM_ID).orElseThrow();
+            gym.getReviews().add(review(author));
+            direct.repository.save(gym);
+        }, direct);
+
+        InMemoryGym coalescedGym = new InMemoryGym();
+        PhotoService photoService = (PhotoService) Proxy.newProxyInstance(
+                PhotoService.class.getClassLoader(),
+                new Class<?>[]{PhotoService.class},
+                (proxy, method, args) -> List.of());
+        UserReviewRepository userReviewRepository = (UserReviewRepository) Proxy.newProxyInstance(
+                UserReviewRepository.class.getClassLoader(),
+                new Class<?>[]{UserReviewRepository.class},
+                (proxy, method, args) -> method.getName().equals("existsById") ? false : args[0]);
+        ReviewServiceImpl reviewService = new ReviewServiceImpl(coalescedGym.repository, photoService,
+                new GymWriteCoalescer(coalescedGym.repository, event -> {
+                }, 64, Duration.ofMillis(2), Duration.ofSeconds(5)), userReviewRepository, null, event -> {
+                });
+        Result coalesced = run(author -> reviewService.createReview(author, GYM_ID,
+                ReviewUpdateCreateRequest.builder().content("great").rating(5).photoIds(List.of()).build()),
+                coalescedGym);
+
+        System.out.println("one save per review: " + uncoalesced);
+        System.out.println("coalesced:           " + coalesced);
+        assertEquals(CONCURRENT_REVIEWS, coalesced.storedReviews());
+        assertTrue(coalesced.saves() < uncoalesced.saves());
+    }
+
+    private Result run(ReviewWrite reviewWrite, InMemoryGym gym) throws Exception {
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> writes = new ArrayList<>(CONCURRENT_REVIEWS);
+            for (int i = 0; i < CONCURRENT_REVIEWS; i++) {
+                User author = User.builder().id("user-" + i).username("user-" + i).build();
+                writes.add(executor.submit(() -> {
+                    reviewWrite.write(author);
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        }
+        long totalMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        return new Result(CONCURRENT_REVIEWS * 1000L / totalMillis, gym.saves.get(),
+                gym.stored.get().getReviews().size());
+    }
+
+    private static Review review(User author) {
+        return Review.builder()
+                .id(UUID.randomUUID().toString())
+                .content("great")
+                .rating(5)
+                .datePosted(LocalDateTime.now())
+                .lastEdited(LocalDateTime.now())
+                .writtenBy(author)
+                .photos(List.of())
+                .build();
+    }
+
+    private interface ReviewWrite {
+        void write(User author) throws Exception;
+    }
+
+    private record Result(long reviewsPerSecond, int saves, int storedReviews) {
+    }
+
+    // findById hands out a copy, like elasticsearch does, save replaces the stored document
+    private static final class InMemoryGym {
+        private final AtomicReference<Gym> stored = new AtomicReference<>(
+                Gym.builder().id(GYM_ID).name("hot gym").reviews(new ArrayList<>()).photos(new ArrayList<>()).build());
+        private final AtomicInteger saves = new AtomicInteger();
+
+        private final GymRepository repository = (GymRepository) Proxy.newProxyInstance(
+                GymRepository.class.getClassLoader(),
+                new Class<?>[]{GymRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "findById" -> Optional.of(copy(stored.get()));
+                    case "save" -> {
+                        Thread.sleep(ELASTICSEARCH_SAVE_MILLIS);
+                        saves.incrementAndGet();
+                        Gym gym = copy((Gym) args[0]);
+                        stored.set(gym);
+                        yield gym;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        private static Gym copy(Gym gym) {
+            return Gym.builder().id(gym.getId()).name(gym.getName()).averageRating(gym.getAverageRating())
+                    .photos(new ArrayList<>(gym.getPhotos())).reviews(new ArrayList<>(gym.getReviews())).build();
+        }
+    }
+}
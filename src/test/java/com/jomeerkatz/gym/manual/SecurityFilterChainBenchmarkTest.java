@@ -0,0 +1,146 @@
+package com.jomeerkatz.gym.manual;
+
+import com.jomeerkatz.gym.config.AdmissionControl;
+import com.jomeerkatz.gym.config.SecurityConfig;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import jakarta.servlet.Filter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.web.SpringJUnitWebConfig;
+
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Cost of the security filters alone for a public read (GET /api/gyms/{id}), the controller is replaced by an empty
+// filter chain. "before" sends it through the old single chain (filterChain), "after" through the real filter chain
+// proxy where publicReadFilterChain picks it up. Both without a token and with a valid one - the frontend sends its
+// token along on every request. The decoder is a plain nimbus decoder (no CachingJwtDecoder), like before user-044.
+// One run on a dev laptop: without token 10.1 -> 4.4 us, with token 121 -> 4.6 us per request.
+// Not part of the normal build:
+//   ./mvnw test -Dtest=SecurityFilterChainBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringJUnitWebConfig(classes = {SecurityConfig.class, AdmissionControl.class, SecurityFilterChainBenchmarkTest.Beans.class})
+// one client sending 100k requests would only measure the 429s
+@TestPropertySource(properties = "app.admission.enabled=false")
+public class SecurityFilterChainBenchmarkTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 100_000;
+    private static final String ISSUER = "http://localhost:8080/realms/gym";
+
+    private static final RSAKey SIGNING_KEY = generateKey();
+    private static String token;
+
+    @Autowired
+    @Qualifier("springSecurityFilterChain")
+    private Filter springSecurityFilterChain;
+
+    @Autowired
+    @Qualifier("filterChain")
+    private SecurityFilterChain mainChain;
+
+    @BeforeAll
+    static void createToken() throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject("user-1")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(3600)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("benchmark").build(), claims);
+        jwt.sign(new RSASSASigner(SIGNING_KEY));
+        token = jwt.serialize();
+    }
+
+    @Test
+    void publicReadFilterOverhead() throws Exception {
+        Filter before = new FilterChainProxy(mainChain);
+        Filter after = springSecurityFilterChain;
+
+        // same outcome on both: let through, only the after-chain allows caching
+        assertEquals(200, run(before, false).getStatus());
+        assertEquals("no-cache, no-store, max-age=0, must-revalidate", run(before, false).getHeader("Cache-Control"));
+        assertEquals("max-age=10, public", run(after, true).getHeader("Cache-Control"));
+        assertNull(run(after, true).getHeader("Pragma"));
+
+        for (boolean withToken : new boolean[]{false, true}) {
+            measure(before, withToken);
+            measure(after, withToken);
+            double beforeNanos = measure(before, withToken);
+            double afterNanos = measure(after, withToken);
+            System.out.printf("%-13s before %8.0f ns/request   after %8.0f ns/request   (%.1fx)%n",
+                    withToken ? "with token" : "without token", beforeNanos, afterNanos, beforeNanos / afterNanos);
+        }
+    }
+
+    private static RSAKey generateKey() {
+        try {
+            return new RSAKeyGenerator(2048).keyID("benchmark").generate();
+        } catch (JOSEException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static double measure(Filter filter, boolean withToken) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            run(filter, withToken);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run(filter, withToken);
+        }
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    private static MockHttpServletResponse run(Filter filter, boolean withToken) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/gyms/gym-1");
+        if (withToken) {
+            request.addHeader("Authorization", "Bearer " + token);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    @Configuration
+    static class Beans {
+        // what spring boot would register, for the Duration properties
+        @Bean
+        static ConversionService conversionService() {
+            return ApplicationConversionService.getSharedInstance();
+        }
+
+        @Bean
+        JwtDecoder jwtDecoder() throws Exception {
+            NimbusJwtDecoder decoder = NimbusJwtDecoder.withPublicKey(SIGNING_KEY.toRSAPublicKey()).build();
+            decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(ISSUER));
+            return decoder;
+        }
+    }
+}
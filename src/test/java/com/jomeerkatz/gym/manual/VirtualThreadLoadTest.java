@@ -0,0 +1,103 @@
+package com.jomeerkatz.gym.manual;
+
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.repositories.GymRepository;
+import com.jomeerkatz.gym.services.impl.GymSearchReplica;
+import com.jomeerkatz.gym.services.impl.GymServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Request concurrency and p99 latency with platform vs. virtual request threads, when every request blocks on a slow
+// Elasticsearch call (simulated by a repository that sleeps). The platform pool has Tomcat's default of 200 threads.
+// Not part of the normal build:
+//   ./mvnw test -Dtest=VirtualThreadLoadTest -Dbenchmark=true
+// Add -DargLine=-Djdk.tracePinnedThreads=full to get a stack trace for every virtual thread that gets pinned.
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class VirtualThreadLoadTest {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int CONCURRENT_REQUESTS = 2_000;
+    private static final long ELASTICSEARCH_LATENCY_MILLIS = 50;
+
+    @Test
+    public void virtualThreadsAgainstPlatformThreadBaseline() throws Exception {
+        Result platform;
+        try (ExecutorService executor = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS)) {
+            platform = run(executor);
+        }
+        Result virtual;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            virtual = run(executor);
+        }
+
+        System.out.println("platform threads: " + platform);
+        System.out.println("virtual threads:  " + virtual);
+        assertTrue(virtual.maxInFlight() > platform.maxInFlight());
+        assertTrue(virtual.p99Millis() < platform.p99Millis());
+    }
+
+    private Result run(ExecutorService executor) throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        // plain proxy instead of a mockito mock: mockito records every invocation under a lock, which would
+        // serialize the requests and hide what we want to measure
+        GymRepository gymRepository = (GymRepository) Proxy.newProxyInstance(
+                GymRepository.class.getClassLoader(),
+                new Class<?>[]{GymRepository.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("findAll")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(ELASTICSEARCH_LATENCY_MILLIS);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                    return new PageImpl<Gym>(List.of());
+                });
+        // geocoding and photos are not involved in a search, and every search has to go to "elasticsearch"
+        GymServiceImpl gymService = new GymServiceImpl(gymRepository, null, null, null, null, null, null,
+                new StaticListableBeanFactory().getBeanProvider(GymSearchReplica.class));
+
+        // every request measures from the moment it arrived, so time spent waiting for a free thread counts
+        long start = System.nanoTime();
+        List<Future<Long>> requests = new ArrayList<>(CONCURRENT_REQUESTS);
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            long arrival = System.nanoTime();
+            requests.add(executor.submit(() -> {
+                gymService.searchGyms(null, null, null, null, null, PageRequest.of(0, 20));
+                return System.nanoTime() - arrival;
+            }));
+        }
+
+        long[] latencies = new long[CONCURRENT_REQUESTS];
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            latencies[i] = requests.get(i).get();
+        }
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Arrays.sort(latencies);
+        long p50 = latencies[CONCURRENT_REQUESTS / 2] / 1_000_000;
+        long p99 = latencies[(int) (CONCURRENT_REQUESTS * 0.99)] / 1_000_000;
+        return new Result(maxInFlight.get(), p50, p99, CONCURRENT_REQUESTS * 1000L / Math.max(1, totalMillis));
+    }
+
+    private record Result(int maxInFlight, long p50Millis, long p99Millis, long requestsPerSecond) {
+    }
+}
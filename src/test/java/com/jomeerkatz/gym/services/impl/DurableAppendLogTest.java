@@ -0,0 +1,157 @@
+package com.jomeerkatz.gym.services.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The log on a temp directory, reopened the way ReviewWriteQueue does it after a restart.
+class DurableAppendLogTest {
+
+    private static final String NAME = "reviews";
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void uncommittedRecordsAreReadAgainAfterARestart() throws IOException {
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            log.append(bytes("a"));
+            log.append(bytes("b"));
+            log.append(bytes("c"));
+            List<DurableAppendLog.Entry> entries = log.read(2);
+            assertEquals(List.of("a", "b"), strings(entries));
+            // only a is processed when the process dies
+            log.commit(entries.getFirst().endOffset());
+        }
+
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            assertEquals(List.of("b", "c"), strings(log.read(10)));
+            assertEquals(4, log.pendingBytes());
+        }
+    }
+
+    @Test
+    void readFromAnOffsetDoesNotConsume() throws IOException {
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            log.append(bytes("a"));
+            log.append(bytes("b"));
+            long afterA = log.read(1).getFirst().endOffset();
+
+            assertEquals(List.of("b"), strings(log.read(afterA, 10)));
+            assertEquals(0, log.committedOffset());
+            assertEquals(List.of("a", "b"), strings(log.read(10)));
+        }
+    }
+
+    @Test
+    void halfWrittenRecordIsCutOffOnStartup() throws IOException {
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            log.append(bytes("a"));
+            log.append(bytes("b"));
+        }
+        // the process died in the middle of writing the next record
+        Files.write(directory.resolve(NAME + ".log"), bytes("{\"half"), StandardOpenOption.APPEND);
+
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            assertEquals(List.of("a", "b"), strings(log.read(10)));
+            log.append(bytes("c"));
+            assertEquals(List.of("a", "b", "c"), strings(log.read(10)));
+        }
+    }
+
+    @Test
+    void drainedLogIsTruncatedOnceItIsBiggerThanMaxBytes() throws IOException {
+        Path logFile = directory.resolve(NAME + ".log");
+        try (DurableAppendLog log = open(8)) {
+            log.append(bytes("aaa"));
+            log.append(bytes("bbb"));
+            List<DurableAppendLog.Entry> entries = log.read(10);
+
+            // b is still pending -> nothing is dropped
+            log.commit(entries.getFirst().endOffset());
+            assertEquals(8, Files.size(logFile));
+
+            log.commit(entries.getLast().endOffset());
+            assertEquals(0, Files.size(logFile));
+            assertEquals(0, log.committedOffset());
+            assertEquals(0, log.pendingBytes());
+
+            log.append(bytes("c"));
+            assertEquals(List.of("c"), strings(log.read(10)));
+        }
+
+        try (DurableAppendLog log = open(8)) {
+            assertEquals(List.of("c"), strings(log.read(10)));
+        }
+    }
+
+    @Test
+    void drainedLogBelowMaxBytesIsKept() throws IOException {
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            log.append(bytes("a"));
+            log.commit(log.read(10).getLast().endOffset());
+
+            assertEquals(2, Files.size(directory.resolve(NAME + ".log")));
+            assertEquals(0, log.pendingBytes());
+            assertTrue(log.read(10).isEmpty());
+        }
+    }
+
+    @Test
+    void concurrentAppendsAllArrive() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (DurableAppendLog log = open(MAX_BYTES)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        log.append(bytes(thread + "-" + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            Set<String> records = new HashSet<>(strings(log.read(threads * perThread + 1)));
+            assertEquals(threads * perThread, records.size());
+            assertTrue(records.contains((threads - 1) + "-" + (perThread - 1)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private DurableAppendLog open(long maxBytes) throws IOException {
+        return new DurableAppendLog(directory, NAME, maxBytes);
+    }
+
+    private static byte[] bytes(String record) {
+        return record.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<DurableAppendLog.Entry> entries) {
+        return entries.stream()
+                .map(entry -> new String(entry.data(), StandardCharsets.UTF_8))
+                .toList();
+    }
+}
@@ -0,0 +1,163 @@
+package com.jomeerkatz.gym.services.impl;
+
+import com.jomeerkatz.gym.domain.GymChangedEvent;
+import com.jomeerkatz.gym.domain.entities.Gym;
+import com.jomeerkatz.gym.exceptions.GymNotFoundException;
+import com.jomeerkatz.gym.repositories.GymRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// The coalescer against a mocked repository. One lane and a long window, so callers that start together end up in
+// the same batch.
+class GymWriteCoalescerTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(300);
+    private static final Duration BATCH_TIMEOUT = Duration.ofSeconds(5);
+
+    private GymRepository gymRepository;
+    private List<GymChangedEvent> events;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        gymRepository = mock(GymRepository.class);
+        events = new CopyOnWriteArrayList<>();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void mutationsOfOneGymAreSavedTogether() throws Exception {
+        when(gymRepository.findById("gym-1")).thenAnswer(invocation -> Optional.of(gym("gym-1")));
+        when(gymRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        GymWriteCoalescer coalescer = coalescer(WINDOW);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String review = "review-" + i;
+            results.add(executor.submit(() -> coalescer.apply("gym-1", gym -> {
+                gym.setName(gym.getName() + "," + review);
+                return review;
+            })));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("review-" + i, results.get(i).get());
+        }
+        verify(gymRepository, times(1)).findById("gym-1");
+        verify(gymRepository, times(1)).save(any());
+        assertEquals(1, events.size());
+        assertEquals(3, events.getFirst().gym().getName().split(",").length - 1);
+    }
+
+    @Test
+    void failingMutationOnlyFailsItsOwnCaller() throws Exception {
+        when(gymRepository.findById("gym-1")).thenAnswer(invocation -> Optional.of(gym("gym-1")));
+        when(gymRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        GymWriteCoalescer coalescer = coalescer(WINDOW);
+
+        Future<String> first = executor.submit(() -> coalescer.apply("gym-1", gym -> {
+            gym.setName(gym.getName() + ",first");
+            return "first";
+        }));
+        Thread.sleep(50);
+        Future<String> failing = executor.submit(() -> coalescer.apply("gym-1", gym -> {
+            throw new IllegalArgumentException("not allowed");
+        }));
+        Thread.sleep(50);
+        Future<String> last = executor.submit(() -> coalescer.apply("gym-1", gym -> {
+            gym.setName(gym.getName() + ",last");
+            return "last";
+        }));
+
+        assertEquals("first", first.get());
+        assertEquals("last", last.get());
+        ExecutionException e = assertThrows(ExecutionException.class, failing::get);
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        verify(gymRepository, times(1)).save(any());
+        assertEquals("gym,first,last", events.getFirst().gym().getName());
+    }
+
+    @Test
+    void conflictingSaveAppliesTheMutationsAgainToTheCurrentGym() {
+        Gym stale = gym("gym-1");
+        Gym current = gym("gym-1");
+        current.setName("renamed");
+        when(gymRepository.findById("gym-1")).thenReturn(Optional.of(stale), Optional.of(current));
+        when(gymRepository.save(any()))
+                .thenThrow(new OptimisticLockingFailureException("version conflict"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        AtomicInteger runs = new AtomicInteger();
+        GymWriteCoalescer coalescer = coalescer(Duration.ZERO);
+
+        String result = coalescer.apply("gym-1", gym -> {
+            runs.incrementAndGet();
+            gym.setName(gym.getName() + ",review");
+            return gym.getName();
+        });
+
+        assertEquals("renamed,review", result);
+        assertEquals(2, runs.get());
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    void gymDeletedDuringTheWriteFailsWithNotFound() {
+        when(gymRepository.findById("gym-1")).thenReturn(Optional.of(gym("gym-1")), Optional.empty());
+        // the delete went through between our read and our save
+        when(gymRepository.save(any())).thenThrow(new OptimisticLockingFailureException("version conflict"));
+        GymWriteCoalescer coalescer = coalescer(Duration.ZERO);
+
+        assertThrows(GymNotFoundException.class, () -> coalescer.apply("gym-1", gym -> "review"));
+        verify(gymRepository, times(1)).save(any());
+        assertEquals(0, events.size());
+    }
+
+    @Test
+    void conflictThatKeepsComingReachesTheCaller() {
+        when(gymRepository.findById("gym-1")).thenAnswer(invocation -> Optional.of(gym("gym-1")));
+        when(gymRepository.save(any())).thenThrow(new OptimisticLockingFailureException("version conflict"));
+        GymWriteCoalescer coalescer = coalescer(Duration.ZERO);
+
+        assertThrows(OptimisticLockingFailureException.class, () -> coalescer.apply("gym-1", gym -> "review"));
+        verify(gymRepository, times(3)).save(any());
+    }
+
+    private GymWriteCoalescer coalescer(Duration window) {
+        return new GymWriteCoalescer(gymRepository, event -> events.add((GymChangedEvent) event), 1, window,
+                BATCH_TIMEOUT);
+    }
+
+    private static Gym gym(String id) {
+        Gym gym = new Gym();
+        gym.setId(id);
+        gym.setName("gym");
+        return gym;
+    }
+}